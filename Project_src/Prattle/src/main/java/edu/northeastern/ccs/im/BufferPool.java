@@ -0,0 +1,168 @@
+package edu.northeastern.ccs.im;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Shared pool of direct ByteBuffers in a few fixed size classes. Connections
+ * borrow a buffer only for the duration of a read and hand it back straight
+ * afterwards, so memory is proportional to the number of reads in progress
+ * rather than to the number of open connections. Direct buffers also save the
+ * copy the JDK makes when a heap buffer is used for socket I/O.
+ * <p>
+ * All operations are lock-free; the pool keeps hit, miss and outstanding-byte
+ * counts so its behaviour can be watched in production.
+ */
+public class BufferPool {
+
+	/** Capacities of the size classes, smallest first. */
+	private static final int[] SIZE_CLASSES = { 1024, 4 * 1024, 16 * 1024, 64 * 1024 };
+
+	/** Default number of idle buffers kept per size class. */
+	private static final int DEFAULT_MAX_IDLE = 64;
+
+	private static final BufferPool SHARED = new BufferPool(Integer.getInteger("prattle.bufferPoolIdle", DEFAULT_MAX_IDLE));
+
+	/** Idle buffers of each size class. */
+	private final Queue<ByteBuffer>[] idle;
+
+	/** Number of buffers in each of the idle queues. */
+	private final AtomicInteger[] idleCount;
+
+	/** Most buffers kept idle per size class. */
+	private final int maxIdle;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final AtomicLong outstandingBytes = new AtomicLong();
+
+	/**
+	 * Create a pool keeping at most <code>maxIdle</code> buffers of each size.
+	 *
+	 * @param maxIdle number of idle buffers retained per size class
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(int maxIdle) {
+		this.maxIdle = maxIdle;
+		idle = new Queue[SIZE_CLASSES.length];
+		idleCount = new AtomicInteger[SIZE_CLASSES.length];
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			idle[i] = new ConcurrentLinkedQueue<>();
+			idleCount[i] = new AtomicInteger();
+		}
+	}
+
+	/**
+	 * The pool shared by every connection in this JVM.
+	 *
+	 * @return the shared pool
+	 */
+	public static BufferPool shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Borrow a cleared buffer holding at least <code>capacity</code> bytes. It
+	 * must be given back with {@link #release(ByteBuffer)}.
+	 *
+	 * @param capacity smallest acceptable capacity
+	 * @return a buffer ready to be filled
+	 */
+	public ByteBuffer acquire(int capacity) {
+		int sizeClass = sizeClassFor(capacity);
+		ByteBuffer buffer = null;
+		if (sizeClass >= 0) {
+			buffer = idle[sizeClass].poll();
+			if (buffer != null) {
+				idleCount[sizeClass].decrementAndGet();
+				hits.incrementAndGet();
+			} else {
+				misses.incrementAndGet();
+				buffer = ByteBuffer.allocateDirect(SIZE_CLASSES[sizeClass]);
+			}
+		} else {
+			// Too big to pool; hand out a one-off heap buffer.
+			misses.incrementAndGet();
+			buffer = ByteBuffer.allocate(capacity);
+		}
+		outstandingBytes.addAndGet(buffer.capacity());
+		return buffer;
+	}
+
+	/**
+	 * Give back a buffer obtained from {@link #acquire(int)}. The caller must not
+	 * touch it afterwards.
+	 *
+	 * @param buffer the buffer being returned
+	 */
+	public void release(ByteBuffer buffer) {
+		outstandingBytes.addAndGet(-buffer.capacity());
+		if (!buffer.isDirect()) {
+			return;
+		}
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			if (SIZE_CLASSES[i] == buffer.capacity()) {
+				if (idleCount[i].incrementAndGet() <= maxIdle) {
+					buffer.clear();
+					idle[i].offer(buffer);
+				} else {
+					idleCount[i].decrementAndGet();
+				}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Number of acquisitions satisfied by an idle buffer.
+	 *
+	 * @return pool hits
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * Number of acquisitions that had to allocate a new buffer.
+	 *
+	 * @return pool misses
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Capacity of all buffers currently borrowed and not yet returned.
+	 *
+	 * @return outstanding bytes
+	 */
+	public long getOutstandingBytes() {
+		return outstandingBytes.get();
+	}
+
+	@Override
+	public String toString() {
+		return "BufferPool[hits=" + getHits() + ", misses=" + getMisses() + ", outstandingBytes="
+				+ getOutstandingBytes() + "]";
+	}
+
+	/**
+	 * Find the smallest size class holding the requested capacity.
+	 *
+	 * @param capacity requested capacity
+	 * @return index of the size class, or -1 if it is larger than every class
+	 */
+	private static int sizeClassFor(int capacity) {
+		for (int i = 0; i < SIZE_CLASSES.length; i++) {
+			if (capacity <= SIZE_CLASSES[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,278 @@
+package edu.northeastern.ccs.im;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Incremental decoder for the Prattle wire protocol. A frame is a handle
+ * followed by length-prefixed arguments, e.g. <code>BCT 3 bob 5 hello</code>.
+ * The number of arguments depends on the handle: direct and group messages
+ * carry the receiver between the sender and the text, e.g.
+ * <code>INDV 3 bob 5 alice 2 hi</code>.
+ * <p>
+ * Bytes are parsed straight out of the network buffer by a resumable state
+ * machine, so a frame may be split over any number of reads. All of the
+ * decoder's working storage is reused between frames; the only objects created
+ * are the argument Strings and the Message itself.
+ */
+public class FrameDecoder {
+
+	private static final Logger logger = Logger.getLogger(FrameDecoder.class.getName());
+
+	private static final int DECIMAL_RADIX = 10;
+
+	/** Longest handle in the protocol. */
+	private static final int MAX_HANDLE_LENGTH = 4;
+
+	/** Initial size of the scratch space used to assemble an argument. */
+	private static final int INITIAL_ARGUMENT_CAPACITY = 256;
+
+	/**
+	 * Scratch space larger than this is given up after the argument that needed
+	 * it, so an idle connection does not keep a large array alive.
+	 */
+	private static final int RETAINED_ARGUMENT_CAPACITY = 4 * 1024;
+
+	/** Largest argument accepted; anything longer is treated as garbage. */
+	private static final int MAX_ARGUMENT_LENGTH = 64 * 1024;
+
+	/** Known message types, cached so that lookups do not copy values(). */
+	private static final Message.MessageType[] TYPES = Message.MessageType.values();
+
+	/** Number of arguments assumed for frames whose handle is not recognised. */
+	private static final int DEFAULT_ARGUMENT_COUNT = 2;
+
+	/** Largest number of arguments carried by any frame. */
+	private static final int MAX_ARGUMENT_COUNT = 3;
+
+	/** What the decoder expects to see next. */
+	private enum State {
+		/** Characters of the handle, up to the space that ends it. */
+		HANDLE,
+		/** Digits of an argument's length, up to the space that ends them. */
+		LENGTH,
+		/** The bytes of an argument. */
+		ARGUMENT,
+		/** The single space between one argument and the next length. */
+		SEPARATOR
+	}
+
+	private State state = State.HANDLE;
+
+	/** Bytes of the handle read so far. */
+	private final byte[] handle = new byte[MAX_HANDLE_LENGTH];
+
+	private int handleLength;
+
+	/** Type named by the handle, or null if it is not one we know. */
+	private Message.MessageType type;
+
+	/** Number of arguments the current frame carries. */
+	private int argumentCount;
+
+	/** Length of the argument being read. */
+	private int argumentLength;
+
+	/** Number of bytes of the current argument read so far. */
+	private int argumentRead;
+
+	/** Scratch space for the argument being read; grows only when needed. */
+	private byte[] argument = new byte[INITIAL_ARGUMENT_CAPACITY];
+
+	/** Index of the argument being read. */
+	private int argumentIndex;
+
+	/** Arguments of the frame decoded so far. */
+	private final String[] arguments = new String[MAX_ARGUMENT_COUNT];
+
+	/**
+	 * Consume every remaining byte of the buffer, adding each completed message to
+	 * the queue. Bytes of an incomplete frame are remembered, so the buffer may be
+	 * cleared and reused once this returns.
+	 *
+	 * @param src bytes received from the network, ready to be read
+	 * @param out queue to which decoded messages are added
+	 * @return the number of messages added
+	 */
+	public int decode(ByteBuffer src, Queue<Message> out) {
+		int decoded = 0;
+		while (src.hasRemaining()) {
+			if (state == State.ARGUMENT) {
+				int count = Math.min(src.remaining(), argumentLength - argumentRead);
+				src.get(argument, argumentRead, count);
+				argumentRead += count;
+				if (argumentRead == argumentLength) {
+					String value = new String(argument, 0, argumentLength, StandardCharsets.US_ASCII);
+					if (argument.length > RETAINED_ARGUMENT_CAPACITY) {
+						argument = new byte[INITIAL_ARGUMENT_CAPACITY];
+					}
+					decoded += finishArgument(value, out);
+				}
+			} else {
+				decoded += step(src.get(), out);
+			}
+		}
+		return decoded;
+	}
+
+	/**
+	 * Returns true when part of a frame has been read but not yet completed.
+	 *
+	 * @return True if the decoder is in the middle of a frame.
+	 */
+	public boolean hasPartialFrame() {
+		return state != State.HANDLE || handleLength != 0;
+	}
+
+	/**
+	 * Feed one byte outside of an argument's contents to the state machine.
+	 *
+	 * @param b   next byte
+	 * @param out queue to which a completed message is added
+	 * @return the number of messages completed by this byte
+	 */
+	private int step(byte b, Queue<Message> out) {
+		switch (state) {
+		case HANDLE:
+			if (b == ' ') {
+				if (handleLength != 0) {
+					type = lookupHandle();
+					argumentCount = type == null ? DEFAULT_ARGUMENT_COUNT : type.getArity();
+					argumentIndex = 0;
+					argumentLength = 0;
+					state = State.LENGTH;
+				}
+			} else if (Character.isWhitespace(b)) {
+				// Tolerate line breaks between frames.
+				if (handleLength != 0) {
+					resync("line break inside handle");
+				}
+			} else if (handleLength < MAX_HANDLE_LENGTH) {
+				handle[handleLength++] = b;
+			} else {
+				resync("handle too long");
+			}
+			return 0;
+		case LENGTH:
+			if (b == ' ') {
+				argumentRead = 0;
+				if (argumentLength == 0) {
+					// A zero length stands for a null argument.
+					return finishArgument(null, out);
+				}
+				if (argumentLength > MAX_ARGUMENT_LENGTH) {
+					resync("argument too long");
+					return 0;
+				}
+				if (argumentLength > argument.length) {
+					argument = new byte[Math.max(argumentLength, argument.length * 2)];
+				}
+				state = State.ARGUMENT;
+			} else if (b >= '0' && b <= '9') {
+				argumentLength = Math.min(argumentLength * DECIMAL_RADIX + (b - '0'), MAX_ARGUMENT_LENGTH + 1);
+			} else {
+				resync("bad argument length");
+			}
+			return 0;
+		case SEPARATOR:
+			argumentLength = 0;
+			state = State.LENGTH;
+			if (b != ' ') {
+				// Be forgiving and treat this byte as the start of the length.
+				return step(b, out);
+			}
+			return 0;
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Record a completed argument and, if it was the last one, build the message.
+	 *
+	 * @param value the argument
+	 * @param out   queue to which the message is added
+	 * @return 1 if a message was added; 0 otherwise
+	 */
+	private int finishArgument(String value, Queue<Message> out) {
+		arguments[argumentIndex++] = value;
+		if (argumentIndex < argumentCount) {
+			state = State.SEPARATOR;
+			return 0;
+		}
+		Message msg = buildMessage();
+		reset();
+		if (msg == null) {
+			return 0;
+		}
+		out.add(msg);
+		return 1;
+	}
+
+	/**
+	 * Turn the decoded handle and arguments into a Message.
+	 *
+	 * @return the message, or null if the handle is unknown
+	 */
+	private Message buildMessage() {
+		if (type == null) {
+			logger.log(Level.FINE, "Dropping frame with unknown handle");
+			return null;
+		}
+		if (argumentCount == MAX_ARGUMENT_COUNT) {
+			return Message.makeMessage(type.toString(), arguments[0], arguments[1], arguments[2]);
+		}
+		return Message.makeMessage(type.toString(), arguments[0], arguments[1]);
+	}
+
+	/**
+	 * Match the handle bytes against the known message types without building a
+	 * String.
+	 *
+	 * @return the matching type, or null
+	 */
+	private Message.MessageType lookupHandle() {
+		for (Message.MessageType type : TYPES) {
+			String tla = type.toString();
+			if (tla.length() == handleLength) {
+				int i = 0;
+				while (i < handleLength && tla.charAt(i) == handle[i]) {
+					i++;
+				}
+				if (i == handleLength) {
+					return type;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Abandon the frame being decoded after a protocol error.
+	 *
+	 * @param reason description of what went wrong
+	 */
+	private void resync(String reason) {
+		logger.log(Level.WARNING, "Discarding malformed frame: {0}", reason);
+		reset();
+	}
+
+	/**
+	 * Get ready for the start of the next frame.
+	 */
+	private void reset() {
+		state = State.HANDLE;
+		handleLength = 0;
+		type = null;
+		argumentCount = 0;
+		argumentIndex = 0;
+		argumentLength = 0;
+		argumentRead = 0;
+		for (int i = 0; i < arguments.length; i++) {
+			arguments[i] = null;
+		}
+	}
+}
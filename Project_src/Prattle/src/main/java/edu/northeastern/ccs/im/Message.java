@@ -1,5 +1,7 @@
 package edu.northeastern.ccs.im;
 
+import java.nio.ByteBuffer;
+
 /**
  * Each instance of this class represents a single transmission by our IM
  * clients.
@@ -20,45 +22,75 @@ public class Message {
         /**
          * Message sent by the user attempting to login using a specified username.
          */
-        HELLO("HLO"),
+        HELLO("HLO", 2),
         /**
          * Message sent by the server acknowledging a successful log in.
          */
-        ACKNOWLEDGE("ACK"),
+        ACKNOWLEDGE("ACK", 2),
         /**
          * Message sent by the server rejecting a login attempt.
          */
-        NO_ACKNOWLEDGE("NAK"),
+        NO_ACKNOWLEDGE("NAK", 2),
         /**
          * Message sent by the user to start the logging out process and sent by the
          * server once the logout process completes.
          */
-        QUIT("BYE"),
+        QUIT("BYE", 2),
+        /**
+         * Message sent by the user with the highest sequence number up to which it
+         * has received every message, and by the server with the sequence number
+         * of the next message it will send. The number may be followed by a colon
+         * and the token of the connection's retransmit window.
+         */
+        SEQUENCE("SEQ", 2),
+        /**
+         * Message sent by the user with the resume token it was last given, to be
+         * sent the messages it missed while disconnected, and by the server with
+         * the token to present next time.
+         */
+        RESUME("RSM", 2),
         /**
          * Message sent by the group
          * the msgSender would be constructed as GROUPNAME - SENDERNAME
          */
-        GROUPMESSAGE("GRM"),
+        GROUPMESSAGE("GRM", 3),
         /**
          * Message sent by an individual
          */
-        INDIVIDUAL_MESSAGE("INDV"),
+        INDIVIDUAL_MESSAGE("INDV", 3),
         /**
          * Message whose contents is broadcast to all connected users.
          */
-        BROADCAST("BCT");
+        BROADCAST("BCT", 2);
         /**
          * Store the short name of this message type.
          */
         private String tla;
 
+        /**
+         * Number of length-prefixed arguments that follow the handle on the wire.
+         */
+        private int arity;
+
         /**
          * Define the message type and specify its short name.
          *
          * @param abbrev Short name of this message type, as a String.
+         * @param arity  Number of arguments this type carries on the wire.
          */
-        private MessageType(String abbrev) {
+        private MessageType(String abbrev, int arity) {
             tla = abbrev;
+            this.arity = arity;
+        }
+
+        /**
+         * Return the number of arguments sent with this type of message: the
+         * sender and text, plus the receiver for direct and group messages.
+         *
+         * @return Number of arguments following the handle.
+         */
+        int getArity() {
+            return arity;
         }
 
         /**
@@ -72,11 +104,21 @@ public class Message {
         }
     }
 
+    /**
+     * Separates the sequence number from the window token in a sequence message.
+     */
+    private static final char SEQUENCE_TOKEN_SEPARATOR = ':';
+
     /**
      * The string sent when a field is null.
      */
     private static final String NULL_OUTPUT = "--";
 
+    /**
+     * Unique, time-ordered identifier of this message, given when it is created.
+     */
+    private final long msgId;
+
     /**
      * The handle of the message.
      */
@@ -97,6 +139,17 @@ public class Message {
      */
     private String msgText;
 
+    /**
+     * This message as sent over the network, built the first time it is needed
+     * and then shared by every recipient.
+     */
+    private volatile byte[] encoded;
+
+    /**
+     * String form of {@link #encoded}, kept so repeated toString() calls are free.
+     */
+    private volatile String wireForm;
+
     /**
      * Create a new message that contains actual IM text. The type of distribution
      * is defined by the handle and we must also set the name of the message sender,
@@ -108,6 +161,21 @@ public class Message {
      * @param text    Text of the instant message
      */
     private Message(MessageType handle, String srcName, String receiverName, String text) {
+        this(MessageIdGenerator.shared().next(), handle, srcName, receiverName, text);
+    }
+
+    /**
+     * Create a message that already has an identifier, such as one read back
+     * from storage.
+     *
+     * @param id      Identifier the message was created with.
+     * @param handle  Handle for the type of message being created.
+     * @param srcName Name of the individual sending this message
+     * @param receiverName Name of the individual receiving this message
+     * @param text    Text of the instant message
+     */
+    private Message(long id, MessageType handle, String srcName, String receiverName, String text) {
+        msgId = id;
         msgType = handle;
         // Save the properly formatted identifier for the user sending the
         // message.
@@ -159,6 +227,20 @@ public class Message {
         return new Message(MessageType.INDIVIDUAL_MESSAGE,sender, msgReceiver, text);
     }
 
+    /**
+     * Create a direct message that keeps the identifier of the message it was
+     * made from.
+     *
+     * @param sender      Name of the sender.
+     * @param msgReceiver Name of the receiver.
+     * @param text        Text of the message.
+     * @param id          Identifier of the original message.
+     * @return Instance of Message with the given identifier.
+     */
+    public static Message makeIndividualMessage(String sender, String msgReceiver, String text, long id) {
+        return new Message(id, MessageType.INDIVIDUAL_MESSAGE, sender, msgReceiver, text);
+    }
+
     /**
      * Create a new message to continue the logout process.
      *
@@ -212,6 +294,10 @@ public class Message {
             result = makeAcknowledgeMessage(srcName);
         } else if (handle.compareTo(MessageType.NO_ACKNOWLEDGE.toString()) == 0) {
             result = makeNoAcknowledgeMessage();
+        } else if (handle.compareTo(MessageType.SEQUENCE.toString()) == 0) {
+            result = new Message(MessageType.SEQUENCE, srcName, null, text);
+        } else if (handle.compareTo(MessageType.RESUME.toString()) == 0) {
+            result = makeResumeMessage(srcName, text);
         }
         return result;
     }
@@ -226,6 +312,39 @@ public class Message {
         return result;
     }
 
+    /**
+     * Rebuild a message read back from storage, with the identifier it was saved
+     * with. The receiver is kept only by the types that carry one.
+     *
+     * @param handle      Handle of the message.
+     * @param srcName     Name of the originator of the message (may be null)
+     * @param msgReceiver Name of the receiver (may be null)
+     * @param text        Text sent in this message (may be null)
+     * @param id          Identifier the message was saved with.
+     * @return Instance of Message, or null if the handle is unknown.
+     */
+    public static Message makeMessage(String handle, String srcName, String msgReceiver, String text, long id) {
+        for (MessageType type : MessageType.values()) {
+            if (handle.compareTo(type.toString()) == 0) {
+                return new Message(id, type, srcName, type.getArity() == 3 ? msgReceiver : null, text);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Create a new message carrying a resume token: from a client, the token it
+     * was last given, or null if it has none; from the server, the token to
+     * present when resuming later.
+     *
+     * @param srcName Name of the sender.
+     * @param token   The resume token.
+     * @return Instance of Message carrying the resume token.
+     */
+    public static Message makeResumeMessage(String srcName, String token) {
+        return new Message(MessageType.RESUME, srcName, null, token);
+    }
+
     /**
      * Create a new message to reject the bad login attempt.
      *
@@ -246,6 +365,34 @@ public class Message {
         return new Message(MessageType.ACKNOWLEDGE, srcName);
     }
 
+    /**
+     * Create a new message carrying a sequence number: from a client, the number
+     * up to which it has received everything; from the server, the number of the
+     * next message it sends.
+     *
+     * @param srcName  Name of the sender.
+     * @param sequence The sequence number.
+     * @return Instance of Message carrying the sequence number.
+     */
+    public static Message makeSequenceMessage(String srcName, long sequence) {
+        return new Message(MessageType.SEQUENCE, srcName, null, Long.toString(sequence));
+    }
+
+    /**
+     * Create a new message carrying a sequence number and the token of the
+     * retransmit window it belongs to: from a client, the window of the
+     * connection it is resuming; from the server, the window to name next time.
+     *
+     * @param srcName  Name of the sender.
+     * @param sequence The sequence number.
+     * @param token    The window's token.
+     * @return Instance of Message carrying the sequence number and token.
+     */
+    public static Message makeSequenceMessage(String srcName, long sequence, String token) {
+        return new Message(MessageType.SEQUENCE, srcName, null,
+                Long.toString(sequence) + SEQUENCE_TOKEN_SEPARATOR + token);
+    }
+
     /**
      * Create a new message for the early stages when the user logs in without all
      * the special stuff.
@@ -265,6 +412,15 @@ public class Message {
         return msgSender;
     }
 
+    /**
+     * Return the identifier of this message.
+     *
+     * @return Unique identifier, ordered by when the message was created.
+     */
+    public long getId() {
+        return msgId;
+    }
+
     /**
      * Return the name of the receiver of this message.
      *
@@ -301,6 +457,63 @@ public class Message {
         return (msgType == MessageType.ACKNOWLEDGE);
     }
 
+    /**
+     * Determine if this message controls the session (logging in or out, or
+     * answering a login) rather than carrying chat text.
+     *
+     * @return True if the message is a control message; false otherwise.
+     */
+    public boolean isControlMessage() {
+        return msgType == MessageType.HELLO || msgType == MessageType.ACKNOWLEDGE
+                || msgType == MessageType.NO_ACKNOWLEDGE || msgType == MessageType.QUIT
+                || msgType == MessageType.SEQUENCE || msgType == MessageType.RESUME;
+    }
+
+    /**
+     * Determine if this message carries a sequence number.
+     *
+     * @return True if the message is a sequence message; false otherwise.
+     */
+    public boolean isSequence() {
+        return msgType == MessageType.SEQUENCE;
+    }
+
+    /**
+     * Determine if this message carries a resume token.
+     *
+     * @return True if the message is a resume message; false otherwise.
+     */
+    public boolean isResume() {
+        return msgType == MessageType.RESUME;
+    }
+
+    /**
+     * Return the sequence number carried by a sequence message.
+     *
+     * @return The sequence number, or -1 if the text is not a number.
+     */
+    public long getSequence() {
+        if (msgText == null) {
+            return -1;
+        }
+        int split = msgText.indexOf(SEQUENCE_TOKEN_SEPARATOR);
+        try {
+            return Long.parseLong(split < 0 ? msgText : msgText.substring(0, split));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Return the retransmit window token carried by a sequence message.
+     *
+     * @return The token, or null if the message does not carry one.
+     */
+    public String getSequenceToken() {
+        int split = msgText == null ? -1 : msgText.indexOf(SEQUENCE_TOKEN_SEPARATOR);
+        return split < 0 || split == msgText.length() - 1 ? null : msgText.substring(split + 1);
+    }
+
     /**
      * Determine if this message is broadcasting text to everyone.
      *
@@ -357,15 +570,46 @@ public class Message {
     }
 
 
+    /**
+     * Return the bytes of this message as sent over the network. They are built
+     * once and shared, so sending one message to many recipients costs a single
+     * encoding; each caller gets its own read-only view with its own position.
+     *
+     * @return Read-only buffer positioned at the start of the encoded message.
+     */
+    public ByteBuffer encode() {
+        byte[] bytes = encoded;
+        if (bytes == null) {
+            bytes = toString().getBytes();
+            encoded = bytes;
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
     /**
      * Representation of this message as a String. This begins with the message
      * handle and then contains the length (as an integer) and the value of the next
-     * two arguments.
+     * two arguments. Messages never change once built, so the String is computed
+     * only once.
      *
      * @return Representation of this message as a String.
      */
     @Override
     public String toString() {
+        String result = wireForm;
+        if (result == null) {
+            result = buildWireForm();
+            wireForm = result;
+        }
+        return result;
+    }
+
+    /**
+     * Build the String sent over the network for this message.
+     *
+     * @return Representation of this message as a String.
+     */
+    private String buildWireForm() {
         String result = msgType.toString();
         if (msgSender != null) {
             result += " " + msgSender.length() + " " + msgSender;
@@ -0,0 +1,101 @@
+package edu.northeastern.ccs.im;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out 64-bit message identifiers that are unique across servers and
+ * roughly ordered by time.
+ * <p>
+ * An identifier holds, from the top, 41 bits of milliseconds since
+ * {@link #EPOCH}, 10 bits of node id and 12 bits of sequence within the
+ * millisecond, so it stays positive until 2087 and up to 4096 can be made
+ * per millisecond on each node. Time and sequence are kept together in one
+ * atomic counter that only moves forward: each identifier takes the current
+ * millisecond with sequence zero or, if that is not past the last one issued,
+ * the one after the last. Running out of sequence therefore borrows the next
+ * millisecond instead of waiting for it, and a clock that goes back cannot
+ * produce a repeat. No locks are taken.
+ */
+public class MessageIdGenerator {
+
+	/** Start of identifier time: 2018-01-01T00:00:00Z. */
+	public static final long EPOCH = 1514764800000L;
+
+	/** Bits of sequence within a millisecond. */
+	private static final int SEQUENCE_BITS = 12;
+
+	/** Bits of node id. */
+	private static final int NODE_BITS = 10;
+
+	/** Largest node id. */
+	public static final int MAX_NODE = (1 << NODE_BITS) - 1;
+
+	private static final MessageIdGenerator SHARED = new MessageIdGenerator(Integer.getInteger("prattle.nodeId", 0));
+
+	private final long node;
+
+	/** Milliseconds since the epoch and sequence of the last identifier, packed together. */
+	private final AtomicLong last = new AtomicLong();
+
+	/**
+	 * Create a generator for one node.
+	 *
+	 * @param node id of this server, from 0 to {@link #MAX_NODE}; each server
+	 *             making identifiers must have its own
+	 */
+	public MessageIdGenerator(int node) {
+		if (node < 0 || node > MAX_NODE) {
+			throw new IllegalArgumentException("Node id must be from 0 to " + MAX_NODE + ": " + node);
+		}
+		this.node = node;
+	}
+
+	/**
+	 * The generator used for every message made in this JVM; its node id is
+	 * taken from the prattle.nodeId property.
+	 *
+	 * @return the shared generator
+	 */
+	public static MessageIdGenerator shared() {
+		return SHARED;
+	}
+
+	/**
+	 * Make a new identifier.
+	 *
+	 * @return an identifier larger than any this generator made before
+	 */
+	public long next() {
+		long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+		long prev;
+		long next;
+		do {
+			prev = last.get();
+			next = Math.max(now, prev + 1);
+		} while (!last.compareAndSet(prev, next));
+		long millis = next >>> SEQUENCE_BITS;
+		long sequence = next & ((1L << SEQUENCE_BITS) - 1);
+		return (millis << (NODE_BITS + SEQUENCE_BITS)) | (node << SEQUENCE_BITS) | sequence;
+	}
+
+	/**
+	 * When an identifier was made.
+	 *
+	 * @param id an identifier
+	 * @return its time in milliseconds since 1970, later than the real time if
+	 *         its node was making more than its sequence allows
+	 */
+	public static long timeOf(long id) {
+		return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+	}
+
+	/**
+	 * Which node made an identifier.
+	 *
+	 * @param id an identifier
+	 * @return the node id
+	 */
+	public static int nodeOf(long id) {
+		return (int) ((id >>> SEQUENCE_BITS) & MAX_NODE);
+	}
+}
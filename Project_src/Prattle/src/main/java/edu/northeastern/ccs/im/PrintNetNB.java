@@ -3,13 +3,19 @@ package edu.northeastern.ccs.im;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 /**
  * This class is similar to the java.io.PrintWriter class, but this class's
- * methods work with our non-blocking Socket classes. This class could easily be
- * made to wait for network output (e.g., be made &quot;non-blocking&quot; in
- * technical parlance), but I have not worried about it yet.
+ * methods work with our non-blocking Socket classes. Output never waits for the
+ * network: whatever a full socket will not accept is parked in a per-connection
+ * queue and sent when the socket becomes writable again. A reader that leaves
+ * more than a high-water mark unwritten, once the socket has refused it, is
+ * considered stuck.
  * 
  * This work is licensed under the Creative Commons Attribution-ShareAlike 4.0
  * International License. To view a copy of this license, visit
@@ -23,13 +29,47 @@ public class PrintNetNB {
 	
 	private static final Logger logger = Logger.getLogger(PrintNetNB.class.getName());
 	
+	/**
+	 * Default number of bytes that may wait for a slow reader before we give up
+	 * on it.
+	 */
+	public static final int DEFAULT_HIGH_WATER_MARK = 1024 * 1024;
+
 	/** Channel over which we will write out any messages. */
 	private final SocketChannel channel;
 
 	/**
-	 * Number of times to try sending a message before we give up in frustration.
+	 * Largest number of buffers handed to a single gathering write.
 	 */
-	private static final int MAXIMUM_TRIES_SENDING = 100;
+	private static final int MAXIMUM_GATHER = 256;
+
+	/**
+	 * Number of queued bytes at which {@link #enqueue(Message)} tries the socket
+	 * without waiting for the caller's {@link #flush()}, well below the default
+	 * high-water mark.
+	 */
+	private static final int FLUSH_BUDGET = 64 * 1024;
+
+	/** Bytes that the socket would not take yet, oldest first. */
+	private final Deque<ByteBuffer> pending;
+
+	/** Total number of bytes waiting in {@link #pending}. */
+	private long pendingBytes;
+
+	/** Bytes queued since the socket was last tried. */
+	private long unflushedBytes;
+
+	/** Number of waiting bytes at which the reader is considered stuck. */
+	private final long highWaterMark;
+
+	/** Set while the socket has refused bytes that are still waiting. */
+	private boolean blocked;
+
+	/** Reused array holding the buffers of one gathering write. */
+	private final ByteBuffer[] gather = new ByteBuffer[MAXIMUM_GATHER];
+
+	/** Set once the reader is stuck or the channel failed; nothing more is sent. */
+	private boolean failed;
 
 	/**
 	 * Creates a new instance of this class. Since, by definition, this class sends
@@ -40,8 +80,23 @@ public class PrintNetNB {
 	 *                 communication.
 	 */
 	public PrintNetNB(SocketChannel sockChan) {
+		this(sockChan, DEFAULT_HIGH_WATER_MARK);
+	}
+
+	/**
+	 * Creates a new instance of this class that gives up on the reader once more
+	 * than <code>highWaterMark</code> bytes are left waiting by a full socket.
+	 * 
+	 * @param sockChan      Non-blocking SocketChannel instance to which we will
+	 *                      send all communication.
+	 * @param highWaterMark Number of unwritten bytes at which the reader is
+	 *                      dropped.
+	 */
+	public PrintNetNB(SocketChannel sockChan, long highWaterMark) {
 		// Remember the channel that we will be using.
 		channel = sockChan;
+		pending = new ArrayDeque<>();
+		this.highWaterMark = highWaterMark;
 	}
 
 	/**
@@ -53,40 +108,125 @@ public class PrintNetNB {
 	 *                   communication.
 	 */
 	public PrintNetNB(SocketNB connection) {
-		// Remember the channel that we will be using.
-		channel = connection.getSocket();
+		this(connection.getSocket());
 	}
 
 	/**
 	 * Send a Message over the network. This method performs its actions by printing
 	 * the given Message over the SocketNB instance with which the PrintNetNB was
-	 * instantiated. This returns whether our attempt to send the message was
-	 * successful.
+	 * instantiated. Whatever the socket will not take right away is kept and sent
+	 * by later calls to {@link #flush()}. This returns whether our attempt to send
+	 * the message was successful, i.e. whether the connection is still usable.
 	 * 
 	 * @param msg Message to be sent out over the network.
-	 * @return True if we successfully send this message; false otherwise.
+	 * @return True if the message was sent or queued; false if the connection
+	 *         failed or the reader has fallen too far behind.
 	 */
 	public boolean print(Message msg) {
-		String str = msg.toString();
-		ByteBuffer wrapper = ByteBuffer.wrap(str.getBytes());
-		int bytesWritten = 0;
-		int attemptsRemaining = MAXIMUM_TRIES_SENDING;
-		while (wrapper.hasRemaining() && (attemptsRemaining > 0)) {
+		if (!enqueue(msg)) {
+			return false;
+		}
+		flush();
+		return !failed;
+	}
+
+	/**
+	 * Encode a Message and add it to the outbound queue, so that a whole batch
+	 * can later go out in a single {@link #flush()}. Once a batch grows past a
+	 * fixed budget it is flushed here, so a large batch never waits in memory as
+	 * a whole.
+	 * 
+	 * @param msg Message to be sent out over the network.
+	 * @return True if the message was queued; false if the connection failed or
+	 *         the reader has fallen too far behind.
+	 */
+	public boolean enqueue(Message msg) {
+		if (failed) {
+			return false;
+		}
+		// Shares the bytes encoded once for every recipient of this message.
+		ByteBuffer wrapper = msg.encode();
+		pending.add(wrapper);
+		pendingBytes += wrapper.remaining();
+		unflushedBytes += wrapper.remaining();
+		if (unflushedBytes >= FLUSH_BUDGET) {
+			flush();
+		}
+		return !failed;
+	}
+
+	/**
+	 * Write as much of the waiting output as the socket will take without
+	 * blocking. Queued messages are handed to the channel together in one
+	 * gathering write, so a burst of messages costs one system call rather than
+	 * one per message. Bytes the socket refuses stay queued; if they come to more
+	 * than the high-water mark the reader is given up on.
+	 * 
+	 * @return True if nothing is left waiting; false otherwise.
+	 */
+	public boolean flush() {
+		unflushedBytes = 0;
+		while (!failed && !pending.isEmpty()) {
+			int count = Math.min(pending.size(), MAXIMUM_GATHER);
+			Iterator<ByteBuffer> it = pending.iterator();
+			for (int i = 0; i < count; i++) {
+				gather[i] = it.next();
+			}
 			try {
-				attemptsRemaining--;
-				bytesWritten += channel.write(wrapper);
+				pendingBytes -= channel.write(gather, 0, count);
 			} catch (IOException e) {
 				// Show that this was unsuccessful
+				failed = true;
+			}
+			Arrays.fill(gather, 0, count, null);
+			// Drop every buffer that went out completely.
+			int sent = 0;
+			while (sent < count && !pending.peek().hasRemaining()) {
+				pending.remove();
+				sent++;
+			}
+			if (sent < count) {
+				// The socket is full; wait until it becomes writable again.
+				blocked = true;
+				if (pendingBytes > highWaterMark && !failed) {
+					String warning = "WARNING: " + pendingBytes + " bytes waiting to be sent"
+							+ " -- dropping this user.";
+					logger.log(Level.WARNING, warning);
+					failed = true;
+				}
 				return false;
 			}
 		}
-		// Check to see if we were successful in our attempt to write the message
-		if (wrapper.hasRemaining()) {
-			String warning = "WARNING: Sent only " + bytesWritten + " out of " + wrapper.limit()
-			+ " bytes -- dropping this user.";
-			logger.log(Level.WARNING, warning);
-			return false;
-		}
-		return true;
+		blocked = false;
+		return pending.isEmpty();
+	}
+
+	/**
+	 * Returns true if some output is waiting for the socket to become writable.
+	 * 
+	 * @return True if there are unsent bytes.
+	 */
+	public boolean hasPendingOutput() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * Returns true while the socket has refused output that is still waiting, so
+	 * callers can stop queueing until it becomes writable again.
+	 * 
+	 * @return True if the last write left bytes behind.
+	 */
+	public boolean isBlocked() {
+		return blocked;
+	}
+
+	/**
+	 * Returns true once the connection has failed or the reader fell so far
+	 * behind that we gave up on it.
+	 * 
+	 * @return True if nothing more will be sent.
+	 */
+	public boolean isFailed() {
+		return failed;
 	}
 }
@@ -2,12 +2,7 @@ package edu.northeastern.ccs.im;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.CharBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.CharsetDecoder;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.logging.Level;
@@ -17,6 +12,10 @@ import java.util.logging.Logger;
  * This class is similar to the java.util.Scanner class, but this class's
  * methods return immediately and does not wait for network input (it is
  * &quot;non-blocking&quot; in technical parlance).
+ * <p>
+ * Instances do not watch their channel for readiness themselves; on the server
+ * that is done by a selector shared between many connections, and this class
+ * is only the per-connection buffer that turns bytes into Messages.
  * 
  * This work is licensed under the Creative Commons Attribution-ShareAlike 4.0
  * International License. To view a copy of this license, visit
@@ -29,23 +28,27 @@ import java.util.logging.Logger;
 public class ScanNetNB {
 	private static final int BUFFER_SIZE = 64 * 1024;
 
-	private static final int DECIMAL_RADIX = 10;
-
-	private static final int HANDLE_LENGTH = 3;
-
-	private static final int MIN_MESSAGE_LENGTH = 7;
-
-	private static final String CHARSET_NAME = "us-ascii"; 
+	/**
+	 * Size of the buffer used when the channel blocks; the read may wait a long
+	 * time holding the buffer, so it is kept small.
+	 */
+	private static final int BLOCKING_BUFFER_SIZE = 1024;
 
 	private SocketChannel channel;
 
-	private Selector selector;
+	/** Pool from which a read buffer is borrowed for each read. */
+	private final BufferPool pool;
 
-	private SelectionKey key;
-
-	private ByteBuffer buff;
+	/** Turns the bytes read into messages, remembering any partial frame. */
+	private final FrameDecoder decoder;
 
 	private Queue<Message> messages;
+
+	/** Set once the other end has closed its side of the connection. */
+	private boolean endOfStream;
+
+	/** Set once this scanner has been closed and must not read any more. */
+	private boolean closed;
 	
 	private static final Logger logger = Logger.getLogger(ScanNetNB.class.getName());
 
@@ -60,20 +63,11 @@ public class ScanNetNB {
 	public ScanNetNB(SocketChannel sockChan) {
 		// Create the queue that will hold the messages received from over the network
 		messages = new ConcurrentLinkedQueue<>();
-		// Allocate the buffer we will use to read data
-		buff = ByteBuffer.allocate(BUFFER_SIZE);
+		// Buffers are borrowed from the shared pool only while a read is in progress
+		pool = BufferPool.shared();
+		decoder = new FrameDecoder();
 		// Remember the channel that we will be using.
 		channel = sockChan;
-		try {
-			// Open the selector to handle our non-blocking I/O
-			selector = Selector.open();
-			// Register our channel to receive alerts to complete the connection
-			key = channel.register(selector, SelectionKey.OP_READ);
-		} catch (IOException e) {
-			// For the moment we are going to simply cover up that there was a problem.
-			logger.log(Level.WARNING, "Message %s", e);
-			assert false;
-		}
 	} 
 
 	/**
@@ -89,42 +83,6 @@ public class ScanNetNB {
 		this(connection.getSocket());
 	}
 
-	/**
-	 * Read in a new argument from the IM server.
-	 * 
-	 * @param charBuffer Buffer holding text from over the network.
-	 * @return String holding the next argument sent over the network.
-	 */
-	private String readArgument(CharBuffer charBuffer) {
-		// Compute the current position in the buffer
-		int pos = charBuffer.position();
-		// Compute the length of this argument
-		int length = 0;
-		// Track the number of locations visited.
-		int seen = 0;
-		// Assert that this character is a digit representing the length of the first argument
-		assert Character.isDigit(charBuffer.get(pos));
-		// Now read in the length of the first argument
-		while (Character.isDigit(charBuffer.get(pos))) {
-			// My quick-and-dirty numeric converter
-			length = length * DECIMAL_RADIX;
-			length += Character.digit(charBuffer.get(pos), DECIMAL_RADIX);
-			// Move to the next character
-			pos += 1;
-			seen += 1;
-		}
-		seen += 1;
-		if (length == 0) {
-			// Update our position
-			charBuffer.position(pos);
-			// If the length is 0, this argument is null
-			return null;
-		}
-		String result = charBuffer.subSequence(seen, length + seen).toString();
-		charBuffer.position(pos + length);
-		return result;
-	}
-
 	/**
 	 * Returns true if there is another line of input from this instance. This
 	 * method will NOT block while waiting for input. This class does not advance
@@ -139,54 +97,30 @@ public class ScanNetNB {
 		if (!messages.isEmpty()) {
 			return true;
 		}  
+		if (closed || endOfStream) {
+			return false;
+		}
+		ByteBuffer buff = pool.acquire(channel.isBlocking() ? BLOCKING_BUFFER_SIZE : BUFFER_SIZE);
 		try {
-			// Otherwise, check if we can read in at least one new message
-			if (selector.selectNow() != 0) {
-				assert key.isReadable();
-				// Read in the next set of commands from the channel.
-				channel.read(buff);
-				selector.selectedKeys().remove(key);
-				buff.flip();
-			} else {
-				return false;
+			// Otherwise, read whatever the channel has for us; a non-blocking channel
+			// returns at once when nothing has arrived.
+			int bytesRead = channel.read(buff);
+			if (bytesRead < 0) {
+				endOfStream = true;
 			}
-			// Create a decoder which will convert our traffic to something useful
-			Charset charset = Charset.forName(CHARSET_NAME);
-			CharsetDecoder decoder = charset.newDecoder();
-			// Convert the buffer to a format that we can actually use.
-			CharBuffer charBuffer = decoder.decode(buff);
-			// get rid of any extra whitespace at the beginning
-			// Start scanning the buffer for any and all messages.
-			int start = 0;
-			// Scan through the entire buffer; check that we have the minimum message size
-			while ((start + MIN_MESSAGE_LENGTH) <= charBuffer.limit()) {
-				// If this is not the first message, skip extra space.
-				if (start != 0) {
-					charBuffer.position(start);
-				}
-				// First read in the handle
-				final String handle = charBuffer.subSequence(0, HANDLE_LENGTH).toString();
-				// Skip past the handle
-				charBuffer.position(start + HANDLE_LENGTH + 1);
-				// Read the first argument containing the sender's name
-				final String sender = readArgument(charBuffer);
-				// Skip past the leading space
-				charBuffer.position(charBuffer.position() + 2);
-				// Read in the second argument containing the message
-				final String message = readArgument(charBuffer);
-				// Add this message into our queue
-				Message newMsg = Message.makeMessage(handle, sender, message);
-				messages.add(newMsg);
-				// And move the position to the start of the next character
-				start = charBuffer.position() + 1;
+			if (bytesRead <= 0) {
+				return false;
 			}
-			// Move any read messages out of the buffer so that we can add to the end.
-			buff.position(start);
-			// Move all of the remaining data to the start of the buffer.
-			buff.compact();
+			buff.flip();
+			// Decode every complete frame; the decoder keeps any partial frame itself
+			decoder.decode(buff, messages);
 		} catch (IOException ioe) {
-			// For the moment, we will cover up this exception and hope it never occurs.
-			assert false;
+			// The connection is unusable; treat it as if the other end hung up.
+			logger.log(Level.INFO, "Caught exception: {0}", ioe.getMessage());
+			endOfStream = true;
+		} finally {
+			// Nothing is left in the buffer: any partial frame lives in the decoder.
+			pool.release(buff);
 		}
 		// Do we now have any messages?
 		return !messages.isEmpty();
@@ -211,17 +145,40 @@ public class ScanNetNB {
 		return msg;
 	}
  
+	/**
+	 * Returns true if messages have already been decoded and are waiting to be
+	 * returned by {@link #nextMessage()}. Unlike {@link #hasNextMessage()} this
+	 * never touches the network.
+	 * 
+	 * @return True if and only if decoded messages are queued.
+	 */
+	public boolean hasBufferedMessages() {
+		return !messages.isEmpty();
+	}
+
+	/**
+	 * Returns true once a read has found that the other end closed the connection.
+	 * 
+	 * @return True if no more input will ever arrive.
+	 */
+	public boolean isEndOfStream() {
+		return endOfStream;
+	}
+
+	/**
+	 * Stop reading from the channel. Messages that were already decoded can still
+	 * be retrieved; the channel itself is closed by its owner.
+	 */
 	public void close() {
-		try {
-			selector.close();
-		} catch (IOException e) {
-			logger.log(Level.INFO, "Caught exception: ");
-			logger.log(Level.WARNING, "Message", e);
-			assert false;
-		}
+		closed = true;
 	}
 
-	public Selector getSelector() {
-		return selector;
+	/**
+	 * Returns true once {@link #close()} has been called.
+	 * 
+	 * @return True if this scanner no longer reads from its channel.
+	 */
+	public boolean isClosed() {
+		return closed;
 	}
 }
@@ -0,0 +1,460 @@
+package edu.northeastern.ccs.im.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.naming.CommunicationException;
+import javax.naming.Context;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.DirContext;
+
+/**
+ * A bounded pool of LDAP directory contexts, each holding one connection to
+ * the directory server.
+ * <p>
+ * Callers do not borrow contexts themselves. {@link #getContext()} hands out a
+ * shared {@link DirContext} that borrows a pooled context for each call made
+ * on it and returns it as soon as the call is over, so every service can keep
+ * the context it was built with and still never hold a connection between
+ * calls. Search results are read in full before the context goes back, and
+ * contexts returned by calls such as createSubcontext are closed rather than
+ * handed out, since their connection belongs to the pool.
+ * <p>
+ * A context that has been idle for a while is checked with a read of the
+ * root entry before it is lent again, and one whose call fails with a
+ * communication error is thrown away. {@link #evictIdle()} closes contexts
+ * idle for too long, down to the minimum, and opens new ones up to it.
+ */
+class DirContextPool {
+
+	private static final Logger logger = Logger.getLogger(DirContextPool.class.getName());
+
+	/**
+	 * Opens a new connection to the directory.
+	 */
+	interface Factory {
+		/**
+		 * Connect to the directory.
+		 *
+		 * @return a new context
+		 * @throws NamingException if the directory cannot be reached
+		 */
+		DirContext create() throws NamingException;
+	}
+
+	/**
+	 * Work that needs one connection for several calls.
+	 *
+	 * @param <T> what the work produces
+	 */
+	interface Work<T> {
+		/**
+		 * Do the work.
+		 *
+		 * @param context a pooled context, only to be used until this returns
+		 * @return the result
+		 * @throws NamingException if the work fails
+		 */
+		T run(DirContext context) throws NamingException;
+	}
+
+	/**
+	 * A context in the pool and when it was last used.
+	 */
+	private static final class Pooled {
+		private final DirContext context;
+		private volatile long lastUsed;
+
+		private Pooled(DirContext context, long now) {
+			this.context = context;
+			this.lastUsed = now;
+		}
+	}
+
+	private final Factory factory;
+
+	private final int minIdle;
+
+	private final int maxSize;
+
+	private final long idleTimeoutMs;
+
+	private final long borrowTimeoutMs;
+
+	private final long validateAfterMs;
+
+	/** Contexts not lent out, most recently used first. */
+	private final Deque<Pooled> idle = new ConcurrentLinkedDeque<>();
+
+	/** One permit per context that may be lent out at once. */
+	private final Semaphore permits;
+
+	private final AtomicInteger open = new AtomicInteger();
+
+	private final AtomicLong created = new AtomicLong();
+
+	private final AtomicLong destroyed = new AtomicLong();
+
+	private final AtomicLong borrowed = new AtomicLong();
+
+	private final AtomicLong timeouts = new AtomicLong();
+
+	private final AtomicLong waitNanos = new AtomicLong();
+
+	/** The context handed to every caller. */
+	private final DirContext shared;
+
+	/**
+	 * Create an empty pool.
+	 *
+	 * @param factory         opens new connections
+	 * @param minIdle         idle contexts kept open
+	 * @param maxSize         most contexts lent out at once
+	 * @param idleTimeoutMs   how long a context beyond the minimum may stay idle
+	 * @param borrowTimeoutMs how long a call waits for a free context
+	 * @param validateAfterMs idle time after which a context is checked before use
+	 */
+	DirContextPool(Factory factory, int minIdle, int maxSize, long idleTimeoutMs, long borrowTimeoutMs,
+			long validateAfterMs) {
+		this.factory = factory;
+		this.maxSize = Math.max(1, maxSize);
+		this.minIdle = Math.min(Math.max(0, minIdle), this.maxSize);
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.borrowTimeoutMs = borrowTimeoutMs;
+		this.validateAfterMs = validateAfterMs;
+		this.permits = new Semaphore(this.maxSize, true);
+		this.shared = (DirContext) Proxy.newProxyInstance(DirContext.class.getClassLoader(),
+				new Class<?>[] { DirContext.class }, new Lender());
+	}
+
+	/**
+	 * Get the context that lends out pooled connections call by call.
+	 *
+	 * @return a context shared by every caller; closing it does nothing
+	 */
+	DirContext getContext() {
+		return shared;
+	}
+
+	/**
+	 * Lend one context for the whole of a piece of work, for calls that depend on
+	 * state kept by the connection, such as the cookie of a paged search.
+	 *
+	 * @param work the work
+	 * @param <T>  what the work produces
+	 * @return the result of the work
+	 * @throws NamingException if no context is free in time or the work fails
+	 */
+	<T> T withContext(Work<T> work) throws NamingException {
+		Pooled pooled = borrow();
+		boolean broken = false;
+		try {
+			return work.run(pooled.context);
+		} catch (CommunicationException | ServiceUnavailableException e) {
+			broken = true;
+			throw e;
+		} finally {
+			release(pooled, broken);
+		}
+	}
+
+	/**
+	 * Close contexts that have been idle too long, keeping the minimum, and open
+	 * new ones until the minimum is idle.
+	 */
+	void evictIdle() {
+		long cutoff = System.currentTimeMillis() - idleTimeoutMs;
+		Pooled oldest;
+		while (idle.size() > minIdle && (oldest = idle.peekLast()) != null && oldest.lastUsed < cutoff) {
+			if (idle.removeLastOccurrence(oldest)) {
+				destroy(oldest);
+			}
+		}
+		while (idle.size() < minIdle && permits.tryAcquire()) {
+			try {
+				idle.offerLast(create());
+			} catch (NamingException e) {
+				logger.log(Level.FINE, "Could not open an idle LDAP connection", e);
+				break;
+			} finally {
+				permits.release();
+			}
+		}
+		logger.log(Level.FINE, "LDAP pool: {0}", this);
+	}
+
+	/**
+	 * Number of connections open, lent out or idle.
+	 *
+	 * @return open connections
+	 */
+	int getOpen() {
+		return open.get();
+	}
+
+	/**
+	 * Number of connections waiting to be lent.
+	 *
+	 * @return idle connections
+	 */
+	int getIdle() {
+		return idle.size();
+	}
+
+	/**
+	 * Number of connections lent out right now.
+	 *
+	 * @return connections in use
+	 */
+	int getActive() {
+		return maxSize - permits.availablePermits();
+	}
+
+	/**
+	 * Number of connections ever opened.
+	 *
+	 * @return connections opened
+	 */
+	long getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * Number of connections closed, whether idle too long or broken.
+	 *
+	 * @return connections closed
+	 */
+	long getDestroyed() {
+		return destroyed.get();
+	}
+
+	/**
+	 * Number of times a connection was lent.
+	 *
+	 * @return connections lent
+	 */
+	long getBorrowed() {
+		return borrowed.get();
+	}
+
+	/**
+	 * Number of calls that gave up waiting for a connection.
+	 *
+	 * @return borrow time-outs
+	 */
+	long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Total time calls have spent waiting for a connection.
+	 *
+	 * @return milliseconds waited
+	 */
+	long getWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+	}
+
+	@Override
+	public String toString() {
+		return "open=" + getOpen() + " idle=" + getIdle() + " active=" + getActive() + " created=" + getCreated()
+				+ " destroyed=" + getDestroyed() + " borrowed=" + getBorrowed() + " timeouts=" + getTimeouts()
+				+ " waitMs=" + getWaitMillis();
+	}
+
+	/**
+	 * Take a context for one call, waiting up to the borrow time-out for one to
+	 * be free.
+	 *
+	 * @return a healthy context
+	 * @throws NamingException if none is free in time or the directory cannot be
+	 *                         reached
+	 */
+	private Pooled borrow() throws NamingException {
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+				timeouts.incrementAndGet();
+				throw new ServiceUnavailableException("No LDAP connection free after " + borrowTimeoutMs + "ms");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedNamingException("Interrupted waiting for an LDAP connection");
+		} finally {
+			waitNanos.addAndGet(System.nanoTime() - start);
+		}
+		try {
+			Pooled pooled;
+			while ((pooled = idle.pollFirst()) != null) {
+				if (isHealthy(pooled)) {
+					borrowed.incrementAndGet();
+					return pooled;
+				}
+				destroy(pooled);
+			}
+			pooled = create();
+			borrowed.incrementAndGet();
+			return pooled;
+		} catch (NamingException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Give a context back after a call.
+	 *
+	 * @param pooled the context
+	 * @param broken whether the call showed the connection to be unusable
+	 */
+	private void release(Pooled pooled, boolean broken) {
+		if (broken) {
+			destroy(pooled);
+		} else {
+			pooled.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(pooled);
+		}
+		permits.release();
+	}
+
+	private boolean isHealthy(Pooled pooled) {
+		if (System.currentTimeMillis() - pooled.lastUsed < validateAfterMs) {
+			return true;
+		}
+		try {
+			pooled.context.getAttributes("", new String[] { "objectClass" });
+			return true;
+		} catch (NamingException e) {
+			logger.log(Level.FINE, "Dropping a stale LDAP connection", e);
+			return false;
+		}
+	}
+
+	private Pooled create() throws NamingException {
+		DirContext context = factory.create();
+		open.incrementAndGet();
+		created.incrementAndGet();
+		return new Pooled(context, System.currentTimeMillis());
+	}
+
+	private void destroy(Pooled pooled) {
+		open.decrementAndGet();
+		destroyed.incrementAndGet();
+		try {
+			pooled.context.close();
+		} catch (NamingException e) {
+			logger.log(Level.FINE, "Could not close an LDAP connection", e);
+		}
+	}
+
+	/**
+	 * Runs each call made on the shared context against a borrowed one.
+	 */
+	private final class Lender implements InvocationHandler {
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "close":
+				return null;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "toString":
+				return "pooled LDAP context (" + DirContextPool.this + ")";
+			default:
+				break;
+			}
+			Pooled pooled = borrow();
+			boolean broken = false;
+			try {
+				Object result = method.invoke(pooled.context, args);
+				if (result instanceof NamingEnumeration) {
+					result = readAll((NamingEnumeration<?>) result);
+				} else if (result instanceof Context) {
+					((Context) result).close();
+					result = null;
+				}
+				return result;
+			} catch (InvocationTargetException e) {
+				Throwable cause = e.getCause();
+				broken = cause instanceof CommunicationException || cause instanceof ServiceUnavailableException;
+				throw cause;
+			} finally {
+				release(pooled, broken);
+			}
+		}
+	}
+
+	/**
+	 * Read a result enumeration to the end while its connection is still ours.
+	 *
+	 * @param results enumeration backed by a pooled connection
+	 * @return the same results, held in memory
+	 * @throws NamingException if reading the results fails
+	 */
+	private static NamingEnumeration<Object> readAll(NamingEnumeration<?> results) throws NamingException {
+		List<Object> items = new ArrayList<>();
+		try {
+			while (results.hasMore()) {
+				items.add(results.next());
+			}
+		} finally {
+			results.close();
+		}
+		return new ListEnumeration(items);
+	}
+
+	/**
+	 * Results already read, enumerated from memory.
+	 */
+	private static final class ListEnumeration implements NamingEnumeration<Object> {
+		private final Iterator<Object> items;
+
+		private ListEnumeration(List<Object> items) {
+			this.items = items.iterator();
+		}
+
+		@Override
+		public Object next() {
+			return items.next();
+		}
+
+		@Override
+		public boolean hasMore() {
+			return items.hasNext();
+		}
+
+		@Override
+		public void close() {
+			// Nothing to release.
+		}
+
+		@Override
+		public boolean hasMoreElements() {
+			return items.hasNext();
+		}
+
+		@Override
+		public Object nextElement() {
+			return items.next();
+		}
+	}
+}
@@ -6,11 +6,14 @@ package edu.northeastern.ccs.im.dao;
  */
 
 import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import javax.naming.Context;
 import javax.naming.NamingException;
 import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
+import javax.naming.ldap.InitialLdapContext;
 
 class DirectoryUtil {
     /**
@@ -18,24 +21,71 @@ class DirectoryUtil {
      */
     private static final String FACTORY = "com.sun.jndi.ldap.LdapCtxFactory";
     private static final String PROVIDER_URL = "ldap://localhost:10389";
-    private static DirContext context = null;
+
+    /**
+     * Constants for the connection pool
+     */
+    private static final int POOL_MIN_IDLE = Integer.getInteger("prattle.ldap.minIdle", 2);
+    private static final int POOL_MAX_SIZE = Integer.getInteger("prattle.ldap.maxSize", 16);
+    private static final long POOL_IDLE_TIMEOUT_IN_MS = Long.getLong("prattle.ldap.idleTimeout", 60000);
+    private static final long POOL_BORROW_TIMEOUT_IN_MS = Long.getLong("prattle.ldap.borrowTimeout", 5000);
+    private static final long POOL_VALIDATE_AFTER_IN_MS = Long.getLong("prattle.ldap.validateAfter", 30000);
+
+    private static final DirContextPool pool = new DirContextPool(DirectoryUtil::connect, POOL_MIN_IDLE,
+            POOL_MAX_SIZE, POOL_IDLE_TIMEOUT_IN_MS, POOL_BORROW_TIMEOUT_IN_MS, POOL_VALIDATE_AFTER_IN_MS);
+
+    static {
+        ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ldap-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, POOL_IDLE_TIMEOUT_IN_MS / 2);
+        evictor.scheduleWithFixedDelay(pool::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
 
     private DirectoryUtil() {}
 
     /**
-     * Creates a database context using the declared server constants
+     * Gets the database context shared by all services. Each call made on it
+     * runs on a connection borrowed from the pool for that call alone.
      * @return LDAP Database context
      * @throws NamingException
      */
     public static DirContext getContext() throws NamingException {
-        try {
-            Properties properties = new Properties();
-            properties.put(Context.INITIAL_CONTEXT_FACTORY, FACTORY);
-            properties.put(Context.PROVIDER_URL, PROVIDER_URL);
-            return new InitialDirContext(properties);
-        }
-        catch (Exception e){
-            return context;
-        }
+        return pool.getContext();
+    }
+
+    /**
+     * Runs work that needs the same connection for several calls, such as a
+     * paged search, on one connection borrowed from the pool for the while.
+     * The connection is an LDAP context, so it takes request controls.
+     * @param work what to do with the connection
+     * @param <T> what the work produces
+     * @return the result of the work
+     * @throws NamingException
+     */
+    static <T> T withConnection(DirContextPool.Work<T> work) throws NamingException {
+        return pool.withContext(work);
+    }
+
+    /**
+     * Gets the connection pool behind the shared context, for its metrics
+     * @return the LDAP connection pool
+     */
+    static DirContextPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Creates a database context using the declared server constants
+     * @return LDAP Database context
+     * @throws NamingException
+     */
+    private static DirContext connect() throws NamingException {
+        Properties properties = new Properties();
+        properties.put(Context.INITIAL_CONTEXT_FACTORY, FACTORY);
+        properties.put(Context.PROVIDER_URL, PROVIDER_URL);
+        return new InitialLdapContext(properties, null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,444 @@
+package edu.northeastern.ccs.im.dao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.northeastern.ccs.im.Message;
+
+/**
+ * Keeps chat messages in an append-only journal on local disk instead of the
+ * directory server.
+ * <p>
+ * Each message is one compact binary record: a version, flags, the time it was
+ * saved in epoch milliseconds, the message's identifier, and its type, sender,
+ * receiver and text, each as a variable-length count of UTF-8 bytes followed
+ * by the bytes. Saving appends the record and, unless told otherwise, waits
+ * for the journal's next flush to disk, which every writer appending at the
+ * same time shares. A message whose identifier is among the most recently
+ * saved is not saved again, so a retried save does not leave a duplicate.
+ * <p>
+ * History lookups go through a {@link MessageIndex} of where each sender's,
+ * receiver's and conversation's messages are in the journal, and which
+ * messages were saved in each minute. The index is rebuilt from the journal
+ * when it is opened and kept up to date as messages are saved, so a lookup
+ * reads only the records it returns. Messages are stamped and appended one at
+ * a time, and a stamp never goes back even if the clock does, so the journal
+ * is in time order and ranges of time are found by binary search.
+ */
+public class JournalMessageRepository implements MessageRepository {
+
+	private static final Logger logger = Logger.getLogger(JournalMessageRepository.class.getName());
+
+	/** Format of the records this class writes. */
+	private static final byte VERSION = 2;
+
+	/** Format of records written before messages had identifiers. */
+	private static final byte VERSION_WITHOUT_ID = 1;
+
+	/** Identifiers of recent messages remembered to drop repeated saves. */
+	private static final int RECENT_IDS = 65536;
+
+	/** Flag bit set on messages flagged by parental control. */
+	private static final int FLAGGED = 1;
+
+	/** Flag bit set on messages sent from one user directly to another. */
+	private static final int DIRECT = 2;
+
+	/** Format of the timestamps accepted by {@link #getMessageByTimestamp(String)}. */
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM.dd HH:mm:ss");
+
+	private final MessageJournal journal;
+
+	private final boolean sync;
+
+	private final MessageIndex index = new MessageIndex();
+
+	/** Time given to the last message saved; guarded by the index. */
+	private long lastTime;
+
+	/** Identifiers of the messages saved most recently; guarded by the index. */
+	private final Map<Long, Boolean> recentIds = new LinkedHashMap<Long, Boolean>() {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+			return size() > RECENT_IDS;
+		}
+	};
+
+	/**
+	 * Open the journal kept in a directory, creating it if needed.
+	 *
+	 * @param directory    where the journal's segment files are kept
+	 * @param segmentBytes size of each segment file
+	 * @param sync         whether saving waits until the message is on disk
+	 * @throws IOException if the journal cannot be opened
+	 */
+	public JournalMessageRepository(File directory, int segmentBytes, boolean sync) throws IOException {
+		this.journal = new MessageJournal(directory, segmentBytes);
+		this.sync = sync;
+		journal.forEach((position, contents) -> {
+			Stored stored = decode(contents);
+			if (stored != null) {
+				index(position, stored);
+			}
+		});
+	}
+
+	/**
+	 * Save a new message
+	 * @param message the message content
+	 */
+	@Override
+	public boolean saveMessage(Message message) {
+		return saveMessage(message, false);
+	}
+
+	/**
+	 * Save a new message, marking it if parental control flagged it
+	 * @param message the message content
+	 * @param flagged whether the message was flagged
+	 * @return True if the message was saved
+	 */
+	public boolean saveMessage(Message message, boolean flagged) {
+		try {
+			long position;
+			synchronized (index) {
+				if (recentIds.containsKey(message.getId())) {
+					logger.log(Level.FINE, "Message {0} is already saved", message.getId());
+					return true;
+				}
+				long time = Math.max(System.currentTimeMillis(), lastTime);
+				position = journal.append(encode(message, flagged, time));
+				if (position < 0) {
+					logger.log(Level.WARNING, "Message from {0} is too large for the journal", message.getName());
+					return false;
+				}
+				lastTime = time;
+				recentIds.put(message.getId(), Boolean.TRUE);
+				index.add(position, message.getName(), message.getMsgReceiver(), time);
+				if (message.isIndividualMessage()) {
+					index.addConversation(position, message.getName(), message.getMsgReceiver(), time);
+				}
+			}
+			if (sync) {
+				journal.awaitDurable(position);
+			}
+			return true;
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Message", e);
+			return false;
+		}
+	}
+
+	/**
+	 * It lists all the messages sent by a user
+	 * @param sender i.e. the user name
+	 * @return list of messages sent by the sender
+	 */
+	@Override
+	public List<Message> getMessageBySender(String sender) {
+		return getMessages(index.bySender(sender));
+	}
+
+	/**
+	 * It lists all the messages received by a user or group
+	 * @param receiver i.e. the user name or group name
+	 * @return list of messages received by user or group
+	 */
+	@Override
+	public List<Message> getMessageByReceiver(String receiver) {
+		return getMessages(index.byReceiver(receiver));
+	}
+
+	/**
+	 * It lists one page of the messages sent by a user. The continuation token is
+	 * the journal position of the last message on the page.
+	 * @param sender i.e. the user name
+	 * @param limit most messages on the page
+	 * @param continuation token from the previous page, or null for the first
+	 * @param order whether to start from the newest or the oldest message
+	 * @return the page, with the token for the next one
+	 */
+	@Override
+	public MessagePage getMessageBySender(String sender, int limit, String continuation, MessagePage.Order order) {
+		checkLimit(limit);
+		boolean newestFirst = order == MessagePage.Order.NEWEST_FIRST;
+		return getPage(index.bySender(sender, positionOf(continuation), limit + 1, newestFirst), limit);
+	}
+
+	/**
+	 * It lists one page of the messages received by a user or group. The
+	 * continuation token is the journal position of the last message on the page.
+	 * @param receiver i.e. the user name or group name
+	 * @param limit most messages on the page
+	 * @param continuation token from the previous page, or null for the first
+	 * @param order whether to start from the newest or the oldest message
+	 * @return the page, with the token for the next one
+	 */
+	@Override
+	public MessagePage getMessageByReceiver(String receiver, int limit, String continuation,
+			MessagePage.Order order) {
+		checkLimit(limit);
+		boolean newestFirst = order == MessagePage.Order.NEWEST_FIRST;
+		return getPage(index.byReceiver(receiver, positionOf(continuation), limit + 1, newestFirst), limit);
+	}
+
+	/**
+	 * It lists the messages two users sent each other directly
+	 * @param user  one user
+	 * @param other the other user
+	 * @return their messages, in the order sent
+	 */
+	public List<Message> getConversation(String user, String other) {
+		return getMessages(index.byConversation(user, other));
+	}
+
+	/**
+	 * It lists all the messages by time stamp
+	 * @param timestamp of sent message
+	 * @return list of messages sent on that time stamp(format: yyyy.MM.dd HH:mm:ss)
+	 */
+	@Override
+	public List<Message> getMessageByTimestamp(String timestamp) {
+		long from;
+		try {
+			from = LocalDateTime.parse(timestamp, TIMESTAMP_FORMAT).atZone(ZoneId.systemDefault()).toInstant()
+					.toEpochMilli();
+		} catch (DateTimeParseException e) {
+			logger.log(Level.INFO, "Not a timestamp: {0}", timestamp);
+			return new ArrayList<>();
+		}
+		return getMessagesBetween(from, from + 1000, null);
+	}
+
+	/**
+	 * It lists the messages of a conversation saved in a range of time, oldest first
+	 * @param from start of the range, in milliseconds since the epoch
+	 * @param to end of the range, in milliseconds since the epoch, exclusive
+	 * @param conversation a user or group, for the messages sent to it, or a key from
+	 * {@link MessageRepository#directConversation(String, String)}; null for every message
+	 * @return list of messages saved in that range
+	 */
+	@Override
+	public List<Message> getMessagesBetween(long from, long to, String conversation) {
+		if (conversation == null) {
+			return getMessages(index.byTime(from, to));
+		}
+		return getMessages(index.byConversation(conversation, from, to));
+	}
+
+	/**
+	 * Flush the journal to disk and close it.
+	 */
+	public void close() {
+		journal.close();
+	}
+
+	/**
+	 * Read the messages at the given journal positions.
+	 *
+	 * @param positions where the messages are
+	 * @return the messages, in the same order
+	 */
+	private List<Message> getMessages(long[] positions) {
+		List<Message> messageList = new ArrayList<>(positions.length);
+		for (long position : positions) {
+			ByteBuffer contents = journal.read(position);
+			Stored stored = contents == null ? null : decode(contents);
+			if (stored != null) {
+				messageList.add(stored.toMessage());
+			}
+		}
+		if (messageList.isEmpty()) {
+			logger.log(Level.INFO, "No messages found!");
+		}
+		return messageList;
+	}
+
+	/**
+	 * Read a page of messages. One more position than the page holds is asked
+	 * for, to tell whether there is a next page without a second lookup.
+	 *
+	 * @param positions where the messages are, in the order read
+	 * @param limit     most messages on the page
+	 * @return the page
+	 */
+	private MessagePage getPage(long[] positions, int limit) {
+		boolean more = positions.length > limit;
+		long[] page = more ? Arrays.copyOf(positions, limit) : positions;
+		List<Message> messages = getMessages(page);
+		return new MessagePage(messages, more ? Long.toString(page[limit - 1], Character.MAX_RADIX) : null);
+	}
+
+	private static long positionOf(String continuation) {
+		if (continuation == null) {
+			return -1;
+		}
+		try {
+			long position = Long.parseLong(continuation, Character.MAX_RADIX);
+			if (position >= 0) {
+				return position;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below.
+		}
+		throw new IllegalArgumentException("Not a continuation token: " + continuation);
+	}
+
+	private static void checkLimit(int limit) {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Page limit must be positive: " + limit);
+		}
+	}
+
+	private void index(long position, Stored stored) {
+		synchronized (index) {
+			lastTime = Math.max(lastTime, stored.time);
+			if (stored.id != 0) {
+				recentIds.put(stored.id, Boolean.TRUE);
+			}
+			index.add(position, stored.sender, stored.receiver, stored.time);
+			if (stored.direct) {
+				index.addConversation(position, stored.sender, stored.receiver, stored.time);
+			}
+		}
+	}
+
+	/**
+	 * A message as read back from the journal.
+	 */
+	static final class Stored {
+		final boolean flagged;
+		final boolean direct;
+		final long time;
+		final long id;
+		final String type;
+		final String sender;
+		final String receiver;
+		final String text;
+
+		private Stored(boolean flagged, boolean direct, long time, long id, String type, String sender,
+				String receiver, String text) {
+			this.flagged = flagged;
+			this.direct = direct;
+			this.time = time;
+			this.id = id;
+			this.type = type;
+			this.sender = sender;
+			this.receiver = receiver;
+			this.text = text;
+		}
+
+		Message toMessage() {
+			if (id != 0) {
+				return Message.makeMessage(type, sender, receiver, text, id);
+			}
+			// Records from before identifiers are given a new one. Messages
+			// without a receiver still report one, so try both forms.
+			Message message = receiver == null ? null : Message.makeMessage(type, sender, receiver, text);
+			return message == null ? Message.makeMessage(type, sender, text) : message;
+		}
+	}
+
+	/**
+	 * Write a message as a journal record.
+	 *
+	 * @param message the message
+	 * @param flagged whether it was flagged
+	 * @param time    when it was saved, in epoch milliseconds
+	 * @return the record's contents
+	 */
+	static byte[] encode(Message message, boolean flagged, long time) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		out.write(VERSION);
+		out.write((flagged ? FLAGGED : 0) | (message.isIndividualMessage() ? DIRECT : 0));
+		writeLong(out, time);
+		writeLong(out, message.getId());
+		writeString(out, message.getType());
+		writeString(out, message.getName());
+		writeString(out, message.getMsgReceiver());
+		writeString(out, message.getText());
+		return out.toByteArray();
+	}
+
+	/**
+	 * Read a message from a journal record.
+	 *
+	 * @param contents the record's contents
+	 * @return the message, or null if the record is in a format we do not know
+	 */
+	static Stored decode(ByteBuffer contents) {
+		byte version = contents.get();
+		if (version != VERSION && version != VERSION_WITHOUT_ID) {
+			return null;
+		}
+		int flags = contents.get();
+		long time = contents.getLong();
+		long id = version == VERSION ? contents.getLong() : 0;
+		String type = readString(contents);
+		String sender = readString(contents);
+		String receiver = readString(contents);
+		String text = readString(contents);
+		return new Stored((flags & FLAGGED) != 0, (flags & DIRECT) != 0, time, id, type, sender, receiver, text);
+	}
+
+	/**
+	 * Write a long as eight bytes, most significant first.
+	 */
+	private static void writeLong(ByteArrayOutputStream out, long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			out.write((int) (value >>> shift));
+		}
+	}
+
+	/**
+	 * Write a string as one more than its length in UTF-8 bytes, seven bits to a
+	 * byte, followed by the bytes; a null string is written as a single zero.
+	 */
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		if (value == null) {
+			out.write(0);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int count = bytes.length + 1;
+		while ((count & ~0x7F) != 0) {
+			out.write((count & 0x7F) | 0x80);
+			count >>>= 7;
+		}
+		out.write(count);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int count = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = in.get();
+			count |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		if (count == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[count - 1];
+		in.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
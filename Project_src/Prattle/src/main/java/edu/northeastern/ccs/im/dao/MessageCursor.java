@@ -0,0 +1,78 @@
+package edu.northeastern.ccs.im.dao;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.naming.NamingException;
+
+import edu.northeastern.ccs.im.Message;
+
+/**
+ * Walks through message history a page at a time, fetching the next page only
+ * once the messages of the last one have been taken, so no more than one page
+ * is held in memory however long the history is.
+ * <p>
+ * A page that cannot be fetched ends the walk with an
+ * {@link IllegalStateException} carrying the cause.
+ */
+public class MessageCursor implements Iterator<Message> {
+
+	/**
+	 * Fetches one page of a query.
+	 */
+	public interface Fetcher {
+		/**
+		 * Fetch a page.
+		 *
+		 * @param continuation token from the previous page, or null for the first
+		 * @return the page
+		 * @throws NamingException if the page cannot be read
+		 */
+		MessagePage fetch(String continuation) throws NamingException;
+	}
+
+	private final Fetcher fetcher;
+
+	private Iterator<Message> current;
+
+	private String continuation;
+
+	private boolean last;
+
+	/**
+	 * Create a cursor; nothing is fetched until it is first used.
+	 *
+	 * @param fetcher fetches the pages of the query
+	 */
+	public MessageCursor(Fetcher fetcher) {
+		this.fetcher = fetcher;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (current == null || !current.hasNext()) {
+			if (last) {
+				return false;
+			}
+			MessagePage page;
+			try {
+				page = fetcher.fetch(continuation);
+			} catch (NamingException e) {
+				last = true;
+				throw new IllegalStateException("Could not fetch message history", e);
+			}
+			current = page.getMessages().iterator();
+			continuation = page.getContinuation();
+			last = !page.hasMore();
+		}
+		return true;
+	}
+
+	@Override
+	public Message next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return current.next();
+	}
+}
@@ -0,0 +1,285 @@
+package edu.northeastern.ccs.im.dao;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Secondary indexes over the message journal: where each sender's messages
+ * are, where each receiver's are, where the messages of each conversation
+ * are, and where the messages saved in each stretch of time are.
+ * <p>
+ * Every index maps a key to the positions of its records in the journal,
+ * kept in log order, so a lookup is one map read followed by reading just
+ * those records. Messages are saved in time order, so each index is in time
+ * order as well and keeps each record's time beside its position; a range of
+ * time within an index is found by binary search. The index of all messages
+ * by time is split into buckets of fixed width, so no one array has to hold
+ * the whole history.
+ */
+class MessageIndex {
+
+	/** Width of a time bucket in milliseconds. */
+	static final long BUCKET_MS = 60000;
+
+	/**
+	 * Positions of the records under one key, in log order, with their times.
+	 */
+	static final class Positions {
+		private long[] positions = new long[4];
+		private long[] times = new long[4];
+		private int size;
+
+		/**
+		 * Add a position. It is placed after the last position smaller than it,
+		 * which is the end unless records are indexed out of order.
+		 */
+		synchronized void add(long position, long time) {
+			if (size == positions.length) {
+				positions = Arrays.copyOf(positions, size * 2);
+				times = Arrays.copyOf(times, size * 2);
+			}
+			int i = size;
+			while (i > 0 && positions[i - 1] > position) {
+				positions[i] = positions[i - 1];
+				times[i] = times[i - 1];
+				i--;
+			}
+			positions[i] = position;
+			times[i] = time;
+			size++;
+		}
+
+		/**
+		 * The positions added so far.
+		 *
+		 * @return a copy, in log order
+		 */
+		synchronized long[] toArray() {
+			return Arrays.copyOf(positions, size);
+		}
+
+		/**
+		 * Some of the positions added so far, found by binary search.
+		 *
+		 * @param after       only positions beyond this one, in the direction read;
+		 *                    negative to start from the first or last
+		 * @param limit       most positions wanted
+		 * @param newestFirst whether to read from the end backwards
+		 * @return the positions, in the order read
+		 */
+		synchronized long[] page(long after, int limit, boolean newestFirst) {
+			int from;
+			if (newestFirst) {
+				// The last position before the one given, or the very last.
+				from = after < 0 ? size - 1 : lowerBound(after) - 1;
+			} else {
+				// The first position after the one given, or the very first.
+				from = after < 0 ? 0 : lowerBound(after + 1);
+			}
+			int count = Math.max(0, Math.min(limit, newestFirst ? from + 1 : size - from));
+			long[] page = new long[count];
+			for (int i = 0; i < count; i++) {
+				page[i] = positions[newestFirst ? from - i : from + i];
+			}
+			return page;
+		}
+
+		/**
+		 * The positions of the records saved in a range of time.
+		 *
+		 * @param from start of the range, in epoch milliseconds
+		 * @param to   end of the range, in epoch milliseconds, exclusive
+		 * @return the positions, in log order
+		 */
+		synchronized long[] between(long from, long to) {
+			int start = lowerBound(times, from);
+			int end = Math.max(start, lowerBound(times, to));
+			return Arrays.copyOfRange(positions, start, end);
+		}
+
+		private int lowerBound(long position) {
+			return lowerBound(positions, position);
+		}
+
+		/** Index of the first of the values no smaller than the one given. */
+		private int lowerBound(long[] values, long value) {
+			int low = 0;
+			int high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (values[mid] < value) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low;
+		}
+	}
+
+	private final Map<String, Positions> bySender = new ConcurrentHashMap<>();
+
+	private final Map<String, Positions> byReceiver = new ConcurrentHashMap<>();
+
+	private final Map<String, Positions> byConversation = new ConcurrentHashMap<>();
+
+	private final ConcurrentNavigableMap<Long, Positions> byTime = new ConcurrentSkipListMap<>();
+
+	/**
+	 * Index one record.
+	 *
+	 * @param position position of the record in the journal
+	 * @param sender   who sent the message
+	 * @param receiver who or what received it
+	 * @param time     when it was saved, in epoch milliseconds
+	 */
+	void add(long position, String sender, String receiver, long time) {
+		if (sender != null) {
+			bySender.computeIfAbsent(sender, key -> new Positions()).add(position, time);
+		}
+		if (receiver != null) {
+			byReceiver.computeIfAbsent(receiver, key -> new Positions()).add(position, time);
+		}
+		byTime.computeIfAbsent(bucket(time), key -> new Positions()).add(position, time);
+	}
+
+	/**
+	 * Index one record as part of the conversation between two users.
+	 *
+	 * @param position position of the record in the journal
+	 * @param sender   who sent the message
+	 * @param receiver who received it
+	 * @param time     when it was saved, in epoch milliseconds
+	 */
+	void addConversation(long position, String sender, String receiver, long time) {
+		byConversation.computeIfAbsent(MessageRepository.directConversation(sender, receiver),
+				key -> new Positions()).add(position, time);
+	}
+
+	/**
+	 * Positions of the messages a user sent.
+	 *
+	 * @param sender the user
+	 * @return positions in log order
+	 */
+	long[] bySender(String sender) {
+		return positionsOf(bySender.get(sender));
+	}
+
+	/**
+	 * Positions of one page of the messages a user sent.
+	 *
+	 * @param sender      the user
+	 * @param after       position of the last message of the previous page, or -1
+	 * @param limit       most positions wanted
+	 * @param newestFirst whether to page from the most recent message back
+	 * @return positions in the order read
+	 */
+	long[] bySender(String sender, long after, int limit, boolean newestFirst) {
+		return pageOf(bySender.get(sender), after, limit, newestFirst);
+	}
+
+	/**
+	 * Positions of the messages a user or group received.
+	 *
+	 * @param receiver the user or group
+	 * @return positions in log order
+	 */
+	long[] byReceiver(String receiver) {
+		return positionsOf(byReceiver.get(receiver));
+	}
+
+	/**
+	 * Positions of one page of the messages a user or group received.
+	 *
+	 * @param receiver    the user or group
+	 * @param after       position of the last message of the previous page, or -1
+	 * @param limit       most positions wanted
+	 * @param newestFirst whether to page from the most recent message back
+	 * @return positions in the order read
+	 */
+	long[] byReceiver(String receiver, long after, int limit, boolean newestFirst) {
+		return pageOf(byReceiver.get(receiver), after, limit, newestFirst);
+	}
+
+	/**
+	 * Positions of the messages two users sent each other.
+	 *
+	 * @param user  one user
+	 * @param other the other user
+	 * @return positions in log order
+	 */
+	long[] byConversation(String user, String other) {
+		return positionsOf(byConversation.get(MessageRepository.directConversation(user, other)));
+	}
+
+	/**
+	 * Positions of the messages of one conversation saved in a range of time.
+	 *
+	 * @param conversation a user or group, for what it received, or a key from
+	 *                     {@link MessageRepository#directConversation(String, String)}
+	 * @param from         start of the range, in epoch milliseconds
+	 * @param to           end of the range, in epoch milliseconds, exclusive
+	 * @return positions in log order
+	 */
+	long[] byConversation(String conversation, long from, long to) {
+		Positions positions = MessageRepository.isDirectConversation(conversation)
+				? byConversation.get(conversation) : byReceiver.get(conversation);
+		return positions == null ? new long[0] : positions.between(from, to);
+	}
+
+	/**
+	 * Positions of the messages saved in a range of time, read from the buckets
+	 * it overlaps.
+	 *
+	 * @param from start of the range, in epoch milliseconds
+	 * @param to   end of the range, in epoch milliseconds, exclusive
+	 * @return positions in log order
+	 */
+	long[] byTime(long from, long to) {
+		if (to <= from) {
+			return new long[0];
+		}
+		long[] positions = new long[0];
+		for (Positions bucket : byTime.subMap(bucket(from), true, bucket(to - 1), true).values()) {
+			long[] more = bucket.between(from, to);
+			int start = positions.length;
+			positions = Arrays.copyOf(positions, start + more.length);
+			System.arraycopy(more, 0, positions, start, more.length);
+		}
+		return positions;
+	}
+
+	/**
+	 * Number of senders indexed.
+	 *
+	 * @return distinct senders
+	 */
+	int getSenderCount() {
+		return bySender.size();
+	}
+
+	/**
+	 * Number of time buckets indexed.
+	 *
+	 * @return time buckets
+	 */
+	int getBucketCount() {
+		return byTime.size();
+	}
+
+	private static long bucket(long time) {
+		return Math.floorDiv(time, BUCKET_MS);
+	}
+
+	private static long[] positionsOf(Positions positions) {
+		return positions == null ? new long[0] : positions.toArray();
+	}
+
+	private static long[] pageOf(Positions positions, long after, int limit, boolean newestFirst) {
+		return positions == null ? new long[0] : positions.page(after, limit, newestFirst);
+	}
+}
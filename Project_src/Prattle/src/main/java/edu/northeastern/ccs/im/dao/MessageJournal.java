@@ -0,0 +1,392 @@
+package edu.northeastern.ccs.im.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of records kept in memory-mapped segment files on local
+ * disk.
+ * <p>
+ * Each record is written as its length, a CRC-32 of its contents and the
+ * contents themselves. A segment is a file of fixed size named after the
+ * position in the log at which it starts; when a record does not fit in the
+ * current segment, a new one is started. Reopening the journal reads every
+ * segment up to the first record that is missing or fails its checksum, which
+ * is where writing continues, so a record torn by a crash is dropped.
+ * <p>
+ * Appends only copy into the mapped file. A single committer thread flushes
+ * the file to disk whenever there is something new, and a caller that needs
+ * its record on disk waits for the next flush; every record appended while a
+ * flush is running is covered by the one after it, so many writers share each
+ * disk flush.
+ * <p>
+ * Records are addressed by their position in the log, which never changes, so
+ * they can be read back individually as well as in order.
+ */
+class MessageJournal {
+
+	private static final Logger logger = Logger.getLogger(MessageJournal.class.getName());
+
+	/** Bytes of length and checksum before each record's contents. */
+	private static final int HEADER_BYTES = 8;
+
+	private static final String SEGMENT_PREFIX = "segment-";
+
+	private static final String SEGMENT_SUFFIX = ".log";
+
+	/**
+	 * Receives records as the journal is read.
+	 */
+	interface Visitor {
+		/**
+		 * Look at one record.
+		 *
+		 * @param position position of the record in the log
+		 * @param contents the record's contents, positioned at its first byte
+		 */
+		void visit(long position, ByteBuffer contents);
+	}
+
+	/**
+	 * One segment file.
+	 */
+	private static final class Segment {
+		private final long start;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+
+		private Segment(long start, FileChannel channel, MappedByteBuffer buffer) {
+			this.start = start;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+	}
+
+	private final File directory;
+
+	private final int segmentBytes;
+
+	/** Segments in log order; the last is the one being written. */
+	private final List<Segment> segments = new ArrayList<>();
+
+	/** Position at which the next record will be written. */
+	private long end;
+
+	/** Position up to which records are known to be on disk. */
+	private long durable;
+
+	/** Whether the journal has been closed. */
+	private boolean closed;
+
+	/**
+	 * Open the journal in a directory, creating it if needed, and start its
+	 * committer.
+	 *
+	 * @param directory    where the segment files are kept
+	 * @param segmentBytes size of each segment file
+	 * @throws IOException if the segments cannot be opened
+	 */
+	MessageJournal(File directory, int segmentBytes) throws IOException {
+		this.directory = directory;
+		this.segmentBytes = segmentBytes;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create journal directory " + directory);
+		}
+		File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX)
+				&& name.endsWith(SEGMENT_SUFFIX));
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName();
+			long start = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+			segments.add(map(start));
+		}
+		if (segments.isEmpty()) {
+			segments.add(map(0));
+		}
+		end = recover();
+		durable = end;
+		Thread committer = new Thread(this::commitLoop, "prattle-journal-commit");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * Add a record at the end of the log.
+	 *
+	 * @param contents the record's contents
+	 * @return the record's position, or -1 if it is too large for a segment
+	 * @throws IOException if a new segment cannot be started
+	 */
+	synchronized long append(byte[] contents) throws IOException {
+		if (closed) {
+			throw new IOException("Journal is closed");
+		}
+		int size = HEADER_BYTES + contents.length;
+		if (size > segmentBytes) {
+			return -1;
+		}
+		Segment segment = current();
+		if (end - segment.start + size > segmentBytes) {
+			// The rest of this segment is zeros, which reads as its end.
+			end = segment.start + segmentBytes;
+			segment = map(end);
+			segments.add(segment);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(contents, 0, contents.length);
+		ByteBuffer buffer = segment.buffer.duplicate();
+		buffer.position((int) (end - segment.start));
+		buffer.putInt(contents.length);
+		buffer.putInt((int) crc.getValue());
+		buffer.put(contents);
+		long position = end;
+		end += size;
+		notifyAll();
+		return position;
+	}
+
+	/**
+	 * Wait until the record at the given position is on disk.
+	 *
+	 * @param position position returned by {@link #append(byte[])}
+	 * @throws IOException if the journal is closed first
+	 */
+	synchronized void awaitDurable(long position) throws IOException {
+		while (durable <= position) {
+			if (closed) {
+				throw new IOException("Journal is closed");
+			}
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted waiting for the journal", e);
+			}
+		}
+	}
+
+	/**
+	 * Read one record.
+	 *
+	 * @param position position of the record
+	 * @return the record's contents, or null if there is no record there
+	 */
+	ByteBuffer read(long position) {
+		Segment segment;
+		synchronized (this) {
+			if (position < 0 || position >= end) {
+				return null;
+			}
+			segment = segmentAt(position);
+		}
+		return segment == null ? null : contentsAt(segment, (int) (position - segment.start));
+	}
+
+	/**
+	 * Read every record in log order.
+	 *
+	 * @param visitor receives each record
+	 */
+	void forEach(Visitor visitor) {
+		forEach(0, visitor);
+	}
+
+	/**
+	 * Read the records from a position on, in log order.
+	 *
+	 * @param from    position of the first record wanted, or 0 for all
+	 * @param visitor receives each record
+	 */
+	void forEach(long from, Visitor visitor) {
+		List<Segment> snapshot;
+		long limit;
+		synchronized (this) {
+			snapshot = new ArrayList<>(segments);
+			limit = end;
+		}
+		for (Segment segment : snapshot) {
+			if (segment.start + segmentBytes <= from) {
+				continue;
+			}
+			int offset = (int) Math.max(0, from - segment.start);
+			while (segment.start + offset < limit && offset + HEADER_BYTES <= segmentBytes) {
+				ByteBuffer contents = contentsAt(segment, offset);
+				if (contents == null) {
+					break;
+				}
+				visitor.visit(segment.start + offset, contents.duplicate());
+				offset += HEADER_BYTES + contents.remaining();
+			}
+		}
+	}
+
+	/**
+	 * Position at which the next record will be written.
+	 *
+	 * @return the end of the log
+	 */
+	synchronized long getEnd() {
+		return end;
+	}
+
+	/**
+	 * Number of segment files.
+	 *
+	 * @return segments
+	 */
+	synchronized int getSegmentCount() {
+		return segments.size();
+	}
+
+	/**
+	 * Flush everything to disk and close the segment files.
+	 */
+	void close() {
+		List<Segment> toClose;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			for (Segment segment : segments) {
+				segment.buffer.force();
+			}
+			durable = end;
+			closed = true;
+			toClose = new ArrayList<>(segments);
+			notifyAll();
+		}
+		for (Segment segment : toClose) {
+			try {
+				segment.channel.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not close journal segment", e);
+			}
+		}
+	}
+
+	/**
+	 * Committer loop: flush whatever has been appended since the last flush,
+	 * then tell everyone waiting for it.
+	 */
+	private void commitLoop() {
+		while (true) {
+			long target;
+			List<Segment> dirty = new ArrayList<>();
+			synchronized (this) {
+				while (!closed && durable >= end) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				if (closed) {
+					return;
+				}
+				target = end;
+				for (Segment segment : segments) {
+					if (segment.start + segmentBytes > durable) {
+						dirty.add(segment);
+					}
+				}
+			}
+			// Flush outside the lock so appends carry on meanwhile.
+			for (Segment segment : dirty) {
+				segment.buffer.force();
+			}
+			synchronized (this) {
+				if (target > durable) {
+					durable = target;
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Find the end of the log: the first record, in the last segment with any,
+	 * that is missing or fails its checksum. Whatever follows it is cleared.
+	 *
+	 * @return the position at which to continue writing
+	 */
+	private long recover() {
+		long position = 0;
+		for (Segment segment : segments) {
+			int offset = 0;
+			ByteBuffer contents;
+			while (offset + HEADER_BYTES <= segmentBytes && (contents = contentsAt(segment, offset)) != null) {
+				offset += HEADER_BYTES + contents.remaining();
+			}
+			position = segment.start + offset;
+			if (offset + HEADER_BYTES <= segmentBytes) {
+				// Clear a torn record so it is not mistaken for data later.
+				ByteBuffer tail = segment.buffer.duplicate();
+				tail.position(offset);
+				while (tail.hasRemaining()) {
+					tail.put((byte) 0);
+				}
+			}
+		}
+		return position;
+	}
+
+	/**
+	 * Read the record at an offset in a segment, checking it.
+	 *
+	 * @param segment segment holding the record
+	 * @param offset  offset of the record in the segment
+	 * @return the record's contents, or null if there is no valid record there
+	 */
+	private ByteBuffer contentsAt(Segment segment, int offset) {
+		if (offset + HEADER_BYTES > segmentBytes) {
+			return null;
+		}
+		ByteBuffer buffer = segment.buffer.duplicate();
+		int length = buffer.getInt(offset);
+		if (length <= 0 || offset + HEADER_BYTES + length > segmentBytes) {
+			return null;
+		}
+		buffer.position(offset + HEADER_BYTES);
+		buffer.limit(offset + HEADER_BYTES + length);
+		ByteBuffer contents = buffer.slice();
+		CRC32 crc = new CRC32();
+		crc.update(contents.duplicate());
+		if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+			return null;
+		}
+		return contents;
+	}
+
+	private Segment current() {
+		return segments.get(segments.size() - 1);
+	}
+
+	private Segment segmentAt(long position) {
+		for (int i = segments.size() - 1; i >= 0; i--) {
+			Segment segment = segments.get(i);
+			if (segment.start <= position) {
+				return segment;
+			}
+		}
+		return null;
+	}
+
+	private Segment map(long start) throws IOException {
+		File file = new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, start, SEGMENT_SUFFIX));
+		@SuppressWarnings("resource")
+		FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+		MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+		return new Segment(start, channel, buffer);
+	}
+}
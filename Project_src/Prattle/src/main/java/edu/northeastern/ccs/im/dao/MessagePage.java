@@ -0,0 +1,67 @@
+package edu.northeastern.ccs.im.dao;
+
+import java.util.Collections;
+import java.util.List;
+
+import edu.northeastern.ccs.im.Message;
+
+/**
+ * One page of message history, and the token with which to ask for the next.
+ * <p>
+ * The continuation token is opaque: it means something only to the
+ * repository that returned it, for the same query in the same order.
+ */
+public class MessagePage {
+
+	/**
+	 * Which end of the history a query starts from.
+	 */
+	public enum Order {
+		/** Most recent message first. */
+		NEWEST_FIRST,
+		/** Earliest message first. */
+		OLDEST_FIRST
+	}
+
+	private final List<Message> messages;
+
+	private final String continuation;
+
+	/**
+	 * Create a page.
+	 *
+	 * @param messages     the messages on this page
+	 * @param continuation token for the next page, or null if this is the last
+	 */
+	public MessagePage(List<Message> messages, String continuation) {
+		this.messages = Collections.unmodifiableList(messages);
+		this.continuation = continuation;
+	}
+
+	/**
+	 * The messages on this page, in the order asked for.
+	 *
+	 * @return messages
+	 */
+	public List<Message> getMessages() {
+		return messages;
+	}
+
+	/**
+	 * Token with which to ask for the next page.
+	 *
+	 * @return the token, or null if there are no more pages
+	 */
+	public String getContinuation() {
+		return continuation;
+	}
+
+	/**
+	 * Whether there may be more messages after this page.
+	 *
+	 * @return True if there is a next page to ask for
+	 */
+	public boolean hasMore() {
+		return continuation != null;
+	}
+}
@@ -3,6 +3,7 @@ package edu.northeastern.ccs.im.dao;
 import edu.northeastern.ccs.im.Message;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.List;
 
 import javax.naming.NamingException;
@@ -46,5 +47,87 @@ public interface MessageRepository {
      */
 	List<Message> getMessageByTimestamp(String timestamp) throws NamingException;
 
+    /**
+     * It lists the messages of a conversation saved in a range of time, oldest first
+     * @param from start of the range, in milliseconds since the epoch
+     * @param to end of the range, in milliseconds since the epoch, exclusive
+     * @param conversation a user or group, for the messages sent to it, or a key from
+     * {@link #directConversation(String, String)}; null for every message
+     * @return list of messages saved in that range
+     * @throws NamingException
+     */
+    List<Message> getMessagesBetween(long from, long to, String conversation) throws NamingException;
+
+    /**
+     * Names the conversation of direct messages between two users, the same
+     * whichever of them is the sender
+     * @param user one user
+     * @param other the other user
+     * @return key of their conversation
+     */
+    static String directConversation(String user, String other) {
+        return user.compareTo(other) <= 0 ? user + DIRECT_SEPARATOR + other : other + DIRECT_SEPARATOR + user;
+    }
+
+    /**
+     * Tells whether a conversation is one named by {@link #directConversation(String, String)}
+     * @param conversation a conversation
+     * @return True if it is between two users
+     */
+    static boolean isDirectConversation(String conversation) {
+        return conversation != null && conversation.indexOf(DIRECT_SEPARATOR) >= 0;
+    }
+
+    /**
+     * Separates the two users in the key of a direct conversation
+     */
+    char DIRECT_SEPARATOR = '\n';
+
+    /**
+     * It lists one page of the messages sent by a user
+     * @param sender i.e. the user name
+     * @param limit most messages on the page
+     * @param continuation token from the previous page, or null for the first
+     * @param order whether to start from the newest or the oldest message
+     * @return the page, with the token for the next one
+     * @throws NamingException
+     */
+    MessagePage getMessageBySender(String sender, int limit, String continuation, MessagePage.Order order)
+            throws NamingException;
+
+    /**
+     * It lists one page of the messages received by a user or group
+     * @param receiver i.e. the user name or group name
+     * @param limit most messages on the page
+     * @param continuation token from the previous page, or null for the first
+     * @param order whether to start from the newest or the oldest message
+     * @return the page, with the token for the next one
+     * @throws NamingException
+     */
+    MessagePage getMessageByReceiver(String receiver, int limit, String continuation, MessagePage.Order order)
+            throws NamingException;
+
+    /**
+     * It walks through all the messages sent by a user, a page at a time
+     * @param sender i.e. the user name
+     * @param pageSize messages fetched at once
+     * @param order whether to start from the newest or the oldest message
+     * @return the messages, fetched as they are needed
+     */
+    default Iterator<Message> iterateMessageBySender(String sender, int pageSize, MessagePage.Order order) {
+        return new MessageCursor(continuation -> getMessageBySender(sender, pageSize, continuation, order));
+    }
+
+    /**
+     * It walks through all the messages received by a user or group, a page at a time
+     * @param receiver i.e. the user name or group name
+     * @param pageSize messages fetched at once
+     * @param order whether to start from the newest or the oldest message
+     * @return the messages, fetched as they are needed
+     */
+    default Iterator<Message> iterateMessageByReceiver(String receiver, int pageSize, MessagePage.Order order) {
+        return new MessageCursor(continuation -> getMessageByReceiver(receiver, pageSize, continuation, order));
+    }
+
 
 }
\ No newline at end of file
@@ -1,15 +1,24 @@
 package edu.northeastern.ccs.im.dao;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Comparator;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.naming.NameAlreadyBoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.*;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.SortControl;
+import javax.naming.ldap.SortKey;
 
 import edu.northeastern.ccs.im.Message;
 
@@ -29,6 +38,11 @@ public class MessageService implements MessageRepository{
 	private static final String TYPE = "title";
 	private static final String TIMESTAMP = "l";
 	private static final String FLAG = "employeeType";
+	/** Digits in a stored timestamp: epoch milliseconds, zero-padded so they sort as text. */
+	private static final int TIMESTAMP_DIGITS = 13;
+	/** Digits in a message uid: the message identifier, zero-padded so it sorts as text. */
+	private static final int ID_DIGITS = 19;
+	private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyy.MM.dd HH:mm:ss");
 	private boolean isBlocked;
 	private UserService us;
 
@@ -69,7 +83,8 @@ public class MessageService implements MessageRepository{
 	}
 
 	/**
-	 * Save a new message
+	 * Save a new message, named by its identifier. A message whose entry
+	 * already exists was saved by an earlier attempt and is not saved again.
 	 * @param message the message content
 
 	 */
@@ -79,9 +94,10 @@ public class MessageService implements MessageRepository{
 		try {
 			String sender = message.getName();
 			String receiver = message.getMsgReceiver();
-			String timeStamp = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss").format(new Date());
+			long now = System.currentTimeMillis();
+			String timeStamp = timestampOf(now);
 
-			String uid = System.currentTimeMillis()+ sender;
+			String uid = uidOf(message.getId());
 			Attributes attributes = new BasicAttributes();
 
 			Attribute attribute = new BasicAttribute("objectClass");
@@ -108,6 +124,10 @@ public class MessageService implements MessageRepository{
 			logger.log(Level.INFO, "Success");
 			return true;
 		}
+		catch(NameAlreadyBoundException e) {
+			logger.log(Level.FINE, "Message {0} is already saved", message.getId());
+			return true;
+		}
 		catch(Exception e) {
 			logger.log(Level.WARNING, "Message", e);
 			return false;
@@ -140,14 +160,86 @@ public class MessageService implements MessageRepository{
 
 
 	/**
-	 * It lists all the messages by time stamp
+	 * It lists all the messages by time stamp. Messages saved before timestamps
+	 * were kept as epoch milliseconds are matched by their formatted time stamp.
 	 * @param timestamp of sent message
 	 * @return list of messages sent on that time stamp(format: yyyy.MM.dd HH:mm:ss)
 	 * @throws NamingException
 	 */
 	@Override
 	public List<Message> getMessageByTimestamp(String timestamp) throws NamingException {
-		return getMessages("l="+timestamp);
+		long from;
+		try {
+			from = LocalDateTime.parse(timestamp, TIMESTAMP_FORMAT).atZone(ZoneId.systemDefault()).toInstant()
+					.toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return getMessages("l="+timestamp);
+		}
+		return getMessages("|(l="+timestamp+")("+timeFilter(from, from + 1000)+")");
+	}
+
+	/**
+	 * It lists the messages of a conversation saved in a range of time, oldest first
+	 * @param from start of the range, in milliseconds since the epoch
+	 * @param to end of the range, in milliseconds since the epoch, exclusive
+	 * @param conversation a user or group, for the messages sent to it, or a key from
+	 * {@link MessageRepository#directConversation(String, String)}; null for every message
+	 * @return list of messages saved in that range
+	 * @throws NamingException
+	 */
+	@Override
+	public List<Message> getMessagesBetween(long from, long to, String conversation) throws NamingException {
+		List<Message> messageList = new ArrayList<>();
+		if (from >= to) {
+			return messageList;
+		}
+		String searchFilter = "(&(objectclass=inetOrgPerson)(" + timeFilter(from, to) + ")"
+				+ conversationFilter(conversation) + ")";
+		String[] requiredAttributes = {"cn","sn","uid",CONTENT,TYPE,TIMESTAMP};
+		SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+		controls.setReturningAttributes(requiredAttributes);
+		NamingEnumeration<?> messages = context.search(MESSAGE_OU, searchFilter, controls);
+		List<Attributes> entries = new ArrayList<>();
+		while (messages.hasMore()) {
+			entries.add(((SearchResult) messages.next()).getAttributes());
+		}
+		// Zero-padded timestamps sort as text in time order.
+		entries.sort(Comparator.comparing(attr -> timestampAttribute(attr)));
+		for (Attributes attr : entries) {
+			messageList.add(toMessage(attr));
+		}
+		return messageList;
+	}
+
+	/**
+	 * It lists one page of the messages sent by a user
+	 * @param sender i.e. the user name
+	 * @param limit most messages on the page
+	 * @param continuation token from the previous page, or null for the first
+	 * @param order whether to start from the newest or the oldest message
+	 * @return the page, with the token for the next one
+	 * @throws NamingException
+	 */
+	@Override
+	public MessagePage getMessageBySender(String sender, int limit, String continuation, MessagePage.Order order)
+			throws NamingException {
+		return getMessagePage("cn="+sender, limit, continuation, order);
+	}
+
+	/**
+	 * It lists one page of the messages received by a user or group
+	 * @param receiver i.e. the user name or group name
+	 * @param limit most messages on the page
+	 * @param continuation token from the previous page, or null for the first
+	 * @param order whether to start from the newest or the oldest message
+	 * @return the page, with the token for the next one
+	 * @throws NamingException
+	 */
+	@Override
+	public MessagePage getMessageByReceiver(String receiver, int limit, String continuation,
+			MessagePage.Order order) throws NamingException {
+		return getMessagePage("sn="+receiver, limit, continuation, order);
 	}
 
 	/**
@@ -221,28 +313,16 @@ public class MessageService implements MessageRepository{
 		String searchFilter = "(&(objectclass=inetOrgPerson)("+name+"))";
 		String[] requiredAttributes = {"cn","sn","uid",CONTENT,TYPE};
 		SearchControls controls = new SearchControls();
-		controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+		// Messages are direct children of ou=message, so one level is enough and
+		// spares the server walking the whole subtree.
+		controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
 		controls.setReturningAttributes(requiredAttributes);
 		NamingEnumeration<?> messages = context.search(MESSAGE_OU, searchFilter, controls);
 		SearchResult searchResult = null;
 		List<Message>messageList = new ArrayList<>();
 		while(messages.hasMore()) {
 			searchResult = (SearchResult) messages.next();
-			Attributes attr = searchResult.getAttributes();
-			String msgSender = attr.get("cn").get(0).toString();
-			String msgReceiver = attr.get("sn").get(0).toString();
-			String msgType = attr.get(TYPE).get(0).toString();
-			String content = attr.get(CONTENT).toString();
-
-			if(msgReceiver!=null) {
-				Message message = Message.makeMessage(msgType,msgSender,msgReceiver, content);
-				messageList.add(message);
-			}
-			else {
-				Message message = Message.makeMessage(msgType,msgSender,content);
-				messageList.add(message);
-			}
-
+			messageList.add(toMessage(searchResult.getAttributes()));
 		}
 
 		if(messageList.isEmpty()) {
@@ -250,6 +330,253 @@ public class MessageService implements MessageRepository{
 		}
 		return messageList;
 	}
+
+	/**
+	 * Returns one page of the messages matching a filter. The search is sorted on
+	 * uid, the message identifier, which starts with the time the message was
+	 * made; one entry more than the page holds is read to learn whether there is
+	 * a next page, and the rest of the search is abandoned. The continuation
+	 * token is the identifier of the last message returned, and the next search
+	 * only matches identifiers past it, so no entry is read twice and messages
+	 * saved meanwhile neither repeat nor shift the pages. Only entries with an
+	 * identifier are paged; those saved before messages had one are listed by
+	 * {@link #getMessageBySender(String)} and {@link #getMessageByReceiver(String)}.
+	 * The sort is critical: a server that cannot sort fails the search rather
+	 * than return a page out of order.
+	 * @param name filter on a message attribute
+	 * @param limit most messages on the page
+	 * @param continuation token from the previous page, or null for the first
+	 * @param order whether to start from the newest or the oldest message
+	 * @return the page, with the token for the next one
+	 * @throws NamingException
+	 */
+	private MessagePage getMessagePage(String name, int limit, String continuation, MessagePage.Order order)
+			throws NamingException {
+		if (limit <= 0) {
+			throw new IllegalArgumentException("Page limit must be positive: " + limit);
+		}
+		boolean ascending = order != MessagePage.Order.NEWEST_FIRST;
+		String ids;
+		if (continuation == null) {
+			ids = idFilter(0, Long.MAX_VALUE);
+		} else if (ascending) {
+			ids = idFilter(idOfToken(continuation) + 1, Long.MAX_VALUE);
+		} else {
+			ids = idFilter(0, idOfToken(continuation));
+		}
+		String searchFilter = "(&(objectclass=inetOrgPerson)("+name+")("+ids+"))";
+		String[] requiredAttributes = {"cn","sn","uid",CONTENT,TYPE};
+		SearchControls controls = new SearchControls();
+		controls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+		controls.setReturningAttributes(requiredAttributes);
+		return DirectoryUtil.withConnection(connection -> {
+			LdapContext ldap = (LdapContext) connection;
+			List<Message> page = new ArrayList<>(limit);
+			long last = -1;
+			boolean more = false;
+			try {
+				ldap.setRequestControls(new Control[] {
+						new SortControl(new SortKey[] {new SortKey("uid", ascending, null)}, Control.CRITICAL)});
+				NamingEnumeration<SearchResult> results = ldap.search(MESSAGE_OU, searchFilter, controls);
+				try {
+					while (results.hasMore()) {
+						Attributes attr = results.next().getAttributes();
+						long id = idOf(attr.get("uid").get(0).toString());
+						if (id < 0) {
+							// An older uid that happens to share a prefix with identifiers.
+							continue;
+						}
+						if (page.size() == limit) {
+							more = true;
+							break;
+						}
+						page.add(toMessage(attr));
+						last = id;
+					}
+				} finally {
+					// Closing early abandons the rest of the search.
+					results.close();
+				}
+			} catch (IOException e) {
+				throw new NamingException("Could not encode the sort control: " + e.getMessage());
+			} finally {
+				ldap.setRequestControls(null);
+			}
+			return new MessagePage(page, more ? Long.toString(last, Character.MAX_RADIX) : null);
+		});
+	}
+
+	/**
+	 * Formats a message identifier the way it is stored as a uid
+	 * @param id the message identifier
+	 * @return the identifier, zero-padded
+	 */
+	static String uidOf(long id) {
+		return String.format("%0" + ID_DIGITS + "d", id);
+	}
+
+	/**
+	 * Reads the message identifier from a uid
+	 * @param uid uid of a message entry
+	 * @return the identifier, or -1 for entries saved before messages had one
+	 */
+	static long idOf(String uid) {
+		if (uid.length() == ID_DIGITS) {
+			try {
+				return Long.parseLong(uid);
+			} catch (NumberFormatException e) {
+				// Not an identifier.
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Formats a time the way it is stored
+	 * @param millis milliseconds since the epoch
+	 * @return the time as zero-padded epoch milliseconds
+	 */
+	static String timestampOf(long millis) {
+		return String.format("%0" + TIMESTAMP_DIGITS + "d", millis);
+	}
+
+	/**
+	 * Builds a filter matching the stored timestamps in a range. The attribute
+	 * has no ordering rule, so the range is split into as few runs of
+	 * timestamps sharing a prefix as it takes, each matched by a substring
+	 * filter on that prefix: [1234, 1300) becomes 1234, 1235..1239, 124*, 125*
+	 * and so on up to 129*.
+	 * @param from start of the range, in milliseconds since the epoch
+	 * @param to end of the range, exclusive
+	 * @return the filter, without its outer parentheses
+	 */
+	static String timeFilter(long from, long to) {
+		return prefixFilter(TIMESTAMP, TIMESTAMP_DIGITS, from, to);
+	}
+
+	/**
+	 * Builds a filter matching the message uids in a range of identifiers, the
+	 * same way {@link #timeFilter(long, long)} matches timestamps. Older uids
+	 * that are not identifiers can still share a prefix with them, so callers
+	 * check what matched with {@link #idOf(String)}.
+	 * @param from first identifier in the range
+	 * @param to end of the range, exclusive, or {@link Long#MAX_VALUE} for no end
+	 * @return the filter, without its outer parentheses
+	 */
+	static String idFilter(long from, long to) {
+		return prefixFilter("uid", ID_DIGITS, from, to);
+	}
+
+	/**
+	 * Builds a filter matching the zero-padded numbers in a range, as a run of
+	 * substring filters on their shared prefixes
+	 * @param attribute attribute holding the number
+	 * @param digits digits the number is padded to
+	 * @param from start of the range
+	 * @param to end of the range, exclusive, or {@link Long#MAX_VALUE} for no end
+	 * @return the filter, without its outer parentheses
+	 */
+	private static String prefixFilter(String attribute, int digits, long from, long to) {
+		StringBuilder filter = new StringBuilder("|");
+		boolean open = to == Long.MAX_VALUE;
+		long next = Math.max(0, from);
+		while (next < to) {
+			// The widest aligned run of numbers starting here and ending in range.
+			long step = 1;
+			int wildcardDigits = 0;
+			while (wildcardDigits < digits && step <= Long.MAX_VALUE / 10 && next % (step * 10) == 0
+					&& (open || to - next >= step * 10)) {
+				step *= 10;
+				wildcardDigits++;
+			}
+			String number = String.format("%0" + digits + "d", next);
+			filter.append('(').append(attribute).append('=')
+					.append(number, 0, number.length() - wildcardDigits)
+					.append(wildcardDigits > 0 ? "*" : "").append(')');
+			if (next > Long.MAX_VALUE - step) {
+				break;
+			}
+			next += step;
+		}
+		if (filter.length() == 1) {
+			// Nothing can match an empty range.
+			filter.append("(!(objectclass=*))");
+		}
+		return filter.toString();
+	}
+
+	/**
+	 * Builds a filter matching the messages of a conversation
+	 * @param conversation a user or group, or a key from
+	 * {@link MessageRepository#directConversation(String, String)}; null for all
+	 * @return the filter, with its parentheses, or an empty string for all
+	 */
+	private static String conversationFilter(String conversation) {
+		if (conversation == null) {
+			return "";
+		}
+		if (!MessageRepository.isDirectConversation(conversation)) {
+			return "(sn=" + conversation + ")";
+		}
+		int split = conversation.indexOf(MessageRepository.DIRECT_SEPARATOR);
+		String user = conversation.substring(0, split);
+		String other = conversation.substring(split + 1);
+		return "(|(&(cn=" + user + ")(sn=" + other + "))(&(cn=" + other + ")(sn=" + user + ")))";
+	}
+
+	private static String timestampAttribute(Attributes attr) {
+		try {
+			Attribute timestamp = attr.get(TIMESTAMP);
+			return timestamp == null ? "" : timestamp.get(0).toString();
+		} catch (NamingException e) {
+			return "";
+		}
+	}
+
+	/**
+	 * Builds a message from the attributes of its entry
+	 * @param attr attributes of a message entry
+	 * @return the message
+	 * @throws NamingException
+	 */
+	private static Message toMessage(Attributes attr) throws NamingException {
+		String msgSender = attr.get("cn").get(0).toString();
+		String msgReceiver = attr.get("sn").get(0).toString();
+		String msgType = attr.get(TYPE).get(0).toString();
+		String content = attr.get(CONTENT).toString();
+		Attribute uid = attr.get("uid");
+		long id = uid == null ? -1 : idOf(uid.get(0).toString());
+		if (id >= 0) {
+			return Message.makeMessage(msgType, msgSender, msgReceiver, content, id);
+		}
+
+		// Entries from before identifiers are given a new one.
+		Message message;
+		if(msgReceiver!=null) {
+			message = Message.makeMessage(msgType,msgSender,msgReceiver, content);
+		}
+		else {
+			message = Message.makeMessage(msgType,msgSender,content);
+		}
+		return message;
+	}
+
+	/**
+	 * Reads the identifier of the last message returned from a continuation token
+	 * @param continuation token from the previous page
+	 * @return the identifier the next page starts after
+	 */
+	private static long idOfToken(String continuation) {
+		try {
+			long id = Long.parseLong(continuation, Character.MAX_RADIX);
+			if (id >= 0) {
+				return id;
+			}
+		} catch (NumberFormatException e) {
+			// Reported below.
+		}
+		throw new IllegalArgumentException("Not a continuation token: " + continuation);
+	}
 	
 	/**
 	 * Sets flag messages with inappropriate content
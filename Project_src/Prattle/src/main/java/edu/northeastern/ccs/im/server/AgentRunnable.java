@@ -12,8 +12,4 @@ public class AgentRunnable extends ClientRunnable {
         super(client, agentName);
     }
 
-    public static void setValidTime(long duration){
-        terminateTime = duration;
-    }
-
 }
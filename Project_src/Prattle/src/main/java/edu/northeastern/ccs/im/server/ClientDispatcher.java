@@ -0,0 +1,38 @@
+package edu.northeastern.ccs.im.server;
+
+import java.io.IOException;
+
+/**
+ * Strategy deciding when, and on which thread, a ClientRunnable gets to do its
+ * work. Prattle picks one implementation at start-up based on the server mode.
+ */
+interface ClientDispatcher {
+
+    /**
+     * Start servicing a newly accepted client.
+     *
+     * @param client the client to be serviced
+     * @throws IOException if the client's channel cannot be set up
+     */
+    void register(ClientRunnable client) throws IOException;
+
+    /**
+     * Stop servicing a client that has been removed from the server.
+     *
+     * @param client the client that went away
+     */
+    void deregister(ClientRunnable client);
+
+    /**
+     * Ask for the client to be run soon because it has work pending (e.g. output
+     * was queued for it by another client).
+     *
+     * @param client the client that has work to do
+     */
+    void dispatch(ClientRunnable client);
+
+    /**
+     * Stop all threads owned by this dispatcher.
+     */
+    void shutdown();
+}
@@ -0,0 +1,215 @@
+package edu.northeastern.ccs.im.server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Event-driven execution model. One event loop: a selector thread watches the
+ * client sockets it owns for OP_READ and hands a ClientRunnable to the worker
+ * pool only when bytes have arrived for it or when another client has queued
+ * output for it. Idle connections cost nothing between events.
+ * <p>
+ * While a client is being run its interest set is cleared, so the selector
+ * never fires twice for the same bytes; it is restored once the worker is done
+ * with the client. A client whose output did not fit in the socket also gets
+ * OP_WRITE interest and is run again when the socket drains.
+ */
+class ClientReactor implements ClientDispatcher, Runnable {
+
+    private static final Logger logger = Logger.getLogger(ClientReactor.class.getName());
+
+    /** Selector watching all of the client sockets owned by this reactor. */
+    private final Selector selector;
+
+    /** Pool on which the ClientRunnables are actually run. */
+    private final ExecutorService workers;
+
+    /** Work that must be done on the selector thread (registration, re-arming). */
+    private final Queue<Runnable> pendingTasks;
+
+    /** Thread running the select loop. */
+    private final Thread thread;
+
+    /** Number of clients currently owned by this reactor. */
+    private final AtomicInteger clients = new AtomicInteger();
+
+    private volatile boolean running;
+
+    /**
+     * Create a new reactor; it does not select until {@link #start()} is called.
+     *
+     * @param name    name of the selector thread
+     * @param workers pool on which clients are run
+     * @throws IOException if the selector cannot be opened
+     */
+    ClientReactor(String name, ExecutorService workers) throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+        this.pendingTasks = new ConcurrentLinkedQueue<>();
+        this.thread = new Thread(this, name);
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Start the selector thread.
+     */
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    @Override
+    public void register(ClientRunnable client) {
+        clients.incrementAndGet();
+        runOnSelectorThread(() -> {
+            try {
+                client.getChannel().register(selector, SelectionKey.OP_READ, client);
+            } catch (ClosedChannelException e) {
+                logger.log(Level.INFO, "Client closed before it could be registered: {0}", client.getName());
+            }
+        });
+    }
+
+    @Override
+    public void deregister(ClientRunnable client) {
+        clients.decrementAndGet();
+    }
+
+    @Override
+    public void dispatch(ClientRunnable client) {
+        if (client.markScheduled()) {
+            try {
+                workers.execute(() -> service(client));
+            } catch (RejectedExecutionException e) {
+                client.clearScheduled();
+                logger.log(Level.WARNING, "Worker pool rejected client {0}", client.getName());
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        if (thread.isAlive()) {
+            // The select loop closes the selector itself on the way out; closing
+            // it from here races with the loop deregistering closed sockets.
+            selector.wakeup();
+        } else {
+            closeSelector();
+        }
+    }
+
+    private void closeSelector() {
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Message", e);
+        }
+    }
+
+    /**
+     * Number of clients currently owned by this reactor.
+     *
+     * @return client count
+     */
+    int getLoad() {
+        return clients.get();
+    }
+
+    /**
+     * Run the client once and decide what happens to it next: run it again if
+     * more work arrived meanwhile, otherwise go back to waiting for input.
+     *
+     * @param client client to run
+     */
+    private void service(ClientRunnable client) {
+        try {
+            client.run();
+        } catch (RuntimeException e) {
+            logger.log(Level.WARNING, "Client run failed", e);
+        } finally {
+            client.clearScheduled();
+            if (client.getChannel().isOpen()) {
+                if (client.hasPendingWork()) {
+                    dispatch(client);
+                } else {
+                    rearm(client);
+                }
+            }
+        }
+    }
+
+    /**
+     * Turn read interest back on for the client, unless its input is paused by
+     * its rate limit, plus write interest when it has output waiting for the
+     * socket. A paused client is woken by the timer that ends the pause.
+     *
+     * @param client client whose socket should be watched again
+     */
+    private void rearm(ClientRunnable client) {
+        int ops = (client.isThrottled() ? 0 : SelectionKey.OP_READ)
+                | (client.hasPendingOutput() ? SelectionKey.OP_WRITE : 0);
+        runOnSelectorThread(() -> {
+            SelectionKey key = client.getChannel().keyFor(selector);
+            try {
+                if (key != null && key.isValid()) {
+                    key.interestOps(ops);
+                }
+            } catch (CancelledKeyException e) {
+                // The client was closed while it was being run.
+            }
+        });
+    }
+
+    private void runOnSelectorThread(Runnable task) {
+        pendingTasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * The select loop.
+     */
+    @Override
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = pendingTasks.poll()) != null) {
+                    task.run();
+                }
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (key.isValid() && (key.isReadable() || key.isWritable())) {
+                            // Stop watching until the worker has dealt with this event.
+                            key.interestOps(0);
+                            dispatch((ClientRunnable) key.attachment());
+                        }
+                    } catch (CancelledKeyException e) {
+                        // The client was closed by another thread; nothing left to do.
+                    }
+                }
+            } catch (ClosedSelectorException e) {
+                running = false;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Message", e);
+            }
+        }
+        closeSelector();
+    }
+}
@@ -1,14 +1,16 @@
 package edu.northeastern.ccs.im.server;
 
 import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.nio.channels.SocketChannel;
-import java.util.Date;
-import java.util.GregorianCalendar;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -19,9 +21,10 @@ import edu.northeastern.ccs.im.ScanNetNB;
 /**
  * Instances of this class handle all of the incoming communication from a
  * single IM client. Instances are created when the client signs-on with the
- * server. After instantiation, it is executed periodically on one of the
- * threads from the thread pool and will stop being run only when the client
- * signs off.
+ * server. After instantiation, it is executed on one of the threads from the
+ * thread pool whenever it has input or output pending (or periodically, when
+ * the server runs in polling mode) and will stop being run only when the
+ * client signs off.
  * 
  * This work is licensed under the Creative Commons Attribution-ShareAlike 4.0
  * International License. To view a copy of this license, visit
@@ -46,6 +49,12 @@ public class ClientRunnable implements Runnable {
 	 */
 	private static final long TERMINATE_AFTER_INACTIVE_BUT_LOGGEDIN_IN_MS = 18000000;
 
+	/**
+	 * Most messages moved from the waiting list to the socket before checking
+	 * whether the socket has kept up.
+	 */
+	private static final int OUTBOUND_BATCH_SIZE = 256;
+
 	/**
 	 * Number of milliseconds after which we terminate a client due to inactivity.
 	 * This is currently equal to 5 hours.
@@ -53,13 +62,56 @@ public class ClientRunnable implements Runnable {
 	protected static long terminateTime = 600000;
 
 	/**
-	 * Time at which we should send a response to the (private) messages we were
-	 * sent.
+	 * Time, in milliseconds since the epoch, at which we should send a response to
+	 * the (private) messages we were sent.
+	 */
+	private volatile long sendResponses;
+
+	/**
+	 * Time, in milliseconds since the epoch, at which the client should be
+	 * terminated due to lack of activity. Activity only moves this deadline; the
+	 * idle timer notices the change when it fires.
+	 */
+	private volatile long terminateInactivity;
+
+	/**
+	 * Pending idle time-out on the server's timing wheel. Set again by the wheel's
+	 * thread, and cancelled by whichever thread terminates the client.
+	 */
+	private volatile TimingWheel.Timeout idleTimer;
+
+	/** Pending wake-up for delayed special responses. */
+	private volatile TimingWheel.Timeout specialTimer;
+
+	/** Pending end of an agent's wire-tap, if this client has one. */
+	private volatile TimingWheel.Timeout expiryTimer;
+
+	/** Whether this client has outlived the time it was granted. */
+	private volatile boolean expired;
+
+	/**
+	 * Sequence numbers and retransmit window of the messages sent to this client;
+	 * null until the client asks for sequencing with a SEQ frame.
 	 */
-	private Date sendResponses;
+	private DeliveryWindow deliveryWindow;
+
+	/** Unacknowledged messages still to be sent again after a resume. */
+	private final Queue<Message> resends = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Message held back because it was sent faster than the client's rate limit
+	 * allows; processed, before any further input is read, once a token is due.
+	 */
+	private volatile Message throttled;
+
+	/** Time, on the {@link System#nanoTime()} clock, at which the held message may go. */
+	private volatile long throttledUntil;
 
-	/** Time at which the client should be terminated due to lack of activity. */
-	private GregorianCalendar terminateInactivity;
+	/** Whether the last message from this client went over its rate limit. */
+	private boolean limited;
+
+	/** Source address of this client, for its rate limit; looked up when first needed. */
+	private String remoteHost;
 
 	/** Queue of special Messages that we must send immediately. */
 	private Queue<Message> immediateResponse;
@@ -98,7 +150,16 @@ public class ClientRunnable implements Runnable {
 
 
 	/** Collection of messages queued up to be sent to this client. */
-	private Queue<Message> waitingList;
+	private OutboundQueue waitingList;
+
+	/**
+	 * Whether this client has been handed to a worker thread and not yet finished
+	 * running; guarantees the client is never run by two threads at once.
+	 */
+	private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+	/** Event loop that watches this client's socket, when running as a reactor. */
+	private ClientReactor reactor;
 
 	/**
 	 * Create a new thread with which we will communicate with this single client.
@@ -115,20 +176,18 @@ public class ClientRunnable implements Runnable {
 		// Create the class we will use to receive input
 		input = new ScanNetNB(socket);
 		// Create the class we will use to send output
-		output = new PrintNetNB(socket);
+		output = new PrintNetNB(socket, ServerConstants.OUTBOUND_HIGH_WATER_MARK);
 		// Mark that we are not initialized
 		initialized = false;
 		// Create our queue of special messages
 		specialResponse = new LinkedList<>();
 		// Create the queue of messages to be sent
-		waitingList = new ConcurrentLinkedQueue<>();
+		waitingList = createWaitingList();
 		// Create our queue of message we must respond to immediately
 		immediateResponse = new LinkedList<>();
 		// Mark that the client is active now and start the timer until we
 		// terminate for inactivity.
-		terminateInactivity = new GregorianCalendar();
-		terminateInactivity
-				.setTimeInMillis(terminateInactivity.getTimeInMillis() + terminateTime);
+		startIdleTimer();
 	}
 
     /**
@@ -147,23 +206,33 @@ public class ClientRunnable implements Runnable {
         // Create the class we will use to receive input
         input = new ScanNetNB(socket);
         // Create the class we will use to send output
-        output = new PrintNetNB(socket);
+        output = new PrintNetNB(socket, ServerConstants.OUTBOUND_HIGH_WATER_MARK);
         // Since we know userName, initialized is set to ture
         name = userName;
         initialized = true;
         // Create our queue of special messages
         specialResponse = new LinkedList<>();
         // Create the queue of messages to be sent
-        waitingList = new ConcurrentLinkedQueue<>();
+        waitingList = createWaitingList();
         // Create our queue of message we must respond to immediately
         immediateResponse = new LinkedList<>();
         // Mark that the client is active now and start the timer until we
         // terminate for inactivity.
-        terminateInactivity = new GregorianCalendar();
-        terminateInactivity
-                .setTimeInMillis(terminateInactivity.getTimeInMillis() + terminateTime);
+        startIdleTimer();
     }
 
+	/**
+	 * Create the bounded queue of messages waiting to be sent to this client.
+	 * 
+	 * @return an empty queue with the server's limits and policies
+	 */
+	private OutboundQueue createWaitingList() {
+		return new OutboundQueue(ServerConstants.OUTBOUND_MAX_MESSAGES, ServerConstants.OUTBOUND_MESSAGE_POLICY,
+				ServerConstants.OUTBOUND_MAX_BYTES, ServerConstants.OUTBOUND_BYTE_POLICY,
+				message -> Prattle.spillToOfflineStore(getName(), message), ServerConstants.DIRECT_LANE_WEIGHT,
+				ServerConstants.BULK_LANE_WEIGHT);
+	}
+
 	/**
 	 * Determines if this is a special message which we handle differently. It will
 	 * handle the messages and return true if msg is "special." Otherwise, it
@@ -197,10 +266,11 @@ public class ClientRunnable implements Runnable {
 			Message msg = input.nextMessage();
 			if (setUserName(msg.getName())) {
 				// Update the time until we terminate this client due to inactivity.
-				terminateInactivity.setTimeInMillis(
-						new GregorianCalendar().getTimeInMillis() + terminateTime);
+				terminateInactivity = System.currentTimeMillis() + terminateTime;
 				// Set that the client is initialized.
 				initialized = true;
+				// Let the server route this user's messages to us.
+				Prattle.userLoggedIn(this);
 			} else {
 				initialized = false;
 			}
@@ -223,8 +293,8 @@ public class ClientRunnable implements Runnable {
 	 */
 	private void handleSpecial(Message msg) {
 		if (specialResponse.isEmpty()) {
-			sendResponses = new Date();
-			sendResponses.setTime(sendResponses.getTime() + SPECIAL_RESPONSE_DELAY_IN_MS);
+			sendResponses = System.currentTimeMillis() + SPECIAL_RESPONSE_DELAY_IN_MS;
+			specialTimer = Prattle.scheduleTimer(() -> Prattle.requestService(this), SPECIAL_RESPONSE_DELAY_IN_MS);
 		}
 		specialResponse.add(msg);
 	}
@@ -241,6 +311,17 @@ public class ClientRunnable implements Runnable {
 		return (msg.getName() != null) && (msg.getName().compareToIgnoreCase(getName()) == 0);
 	}
 
+	/**
+	 * Tell the client its last message was thrown away because it was sent under
+	 * another user's name.
+	 */
+	private void rejectWrongName() {
+		Message sendMsg;
+		sendMsg = Message.makeBroadcastMessage(ServerConstants.BOUNCER_ID,
+				"Last message was rejected because it specified an incorrect user name.");
+		enqueueMessage(sendMsg);
+	}
+
 	/**
 	 * Immediately send this message to the client. This returns if we were
 	 * successful or not in our attempt to send the message.
@@ -250,9 +331,154 @@ public class ClientRunnable implements Runnable {
 	 */
 	private boolean sendMessage(Message message) {
 		logger.log(Level.INFO,"\t{0}",message);
+		track(message);
 		return output.print(message);
 	}
 
+	/**
+	 * Encode this message for the client without writing it yet; the caller
+	 * flushes the whole batch at once.
+	 * 
+	 * @param message Message to be sent with the next flush.
+	 * @return True if the message was queued; false if the connection is unusable.
+	 */
+	private boolean queueMessage(Message message) {
+		logger.log(Level.INFO,"\t{0}",message);
+		track(message);
+		return output.enqueue(message);
+	}
+
+	/**
+	 * Number a chat message about to be written and keep it until the client
+	 * acknowledges it, if the client has asked for sequencing.
+	 * 
+	 * @param message Message being written to the client.
+	 */
+	private void track(Message message) {
+		if (deliveryWindow != null && !message.isControlMessage()) {
+			deliveryWindow.record(message);
+		}
+	}
+
+	/**
+	 * Handle a SEQ frame from the client. The first one turns sequencing on: the
+	 * window of the previous connection named by the client's token, if any, is
+	 * taken over and acknowledged up to the client's number, the server answers
+	 * with the number of the next message it will send and the window's token,
+	 * and every message the client has not acknowledged is sent again. Later ones
+	 * simply acknowledge what the client has received.
+	 * 
+	 * @param msg SEQ message carrying the highest sequence number received.
+	 */
+	private void handleSequence(Message msg) {
+		long received = msg.getSequence();
+		if (deliveryWindow != null) {
+			deliveryWindow.acknowledge(received);
+			return;
+		}
+		DeliveryWindow window = Prattle.resumeDeliveryWindow(name, msg.getSequenceToken());
+		if (window == null) {
+			window = new DeliveryWindow(ServerConstants.RETRANSMIT_WINDOW);
+		}
+		window.acknowledge(received);
+		deliveryWindow = window;
+		List<Message> unacknowledged = window.unacknowledged();
+		logger.log(Level.INFO, "Sequencing {0} from {1}, resending {2}",
+				new Object[] { name, window.firstUnacknowledged(), unacknowledged.size() });
+		output.enqueue(Message.makeSequenceMessage(ServerConstants.SERVER_NAME, window.firstUnacknowledged(),
+				window.getToken()));
+		// These keep the numbers they were first sent with, and go out before
+		// anything new.
+		resends.addAll(unacknowledged);
+		sendResends();
+	}
+
+	/**
+	 * Send the messages waiting to be sent again, until the socket is full. The
+	 * rest wait for the next run, so a long window cannot pile up more output
+	 * than the socket takes.
+	 */
+	private void sendResends() {
+		Message resend;
+		while (!output.isBlocked() && (resend = resends.poll()) != null) {
+			output.enqueue(resend);
+		}
+		output.flush();
+	}
+
+	/**
+	 * Answer a resume with the token of the user's replay ring. The ring is
+	 * replayed when the user logs in, before the client can send its resume, so
+	 * there is nothing left in it to replay here; the token only tells the client
+	 * whether the ring it last heard of survived. A client whose token is unknown
+	 * has to load its missed messages from the offline store.
+	 *
+	 * @param msg resume message sent by the client
+	 */
+	private void handleResume(Message msg) {
+		ReplayRing ring = Prattle.replayRingOf(name);
+		if (ring == null) {
+			return;
+		}
+		if (!ring.getToken().equals(msg.getText())) {
+			logger.log(Level.INFO, "Unknown resume token from {0}", name);
+		}
+		enqueueMessage(Message.makeResumeMessage(ServerConstants.SERVER_NAME, ring.getToken()));
+	}
+
+	/**
+	 * Check a message against the rate limits of this client's user and address.
+	 * Control messages are never limited. A message over the limit is either held
+	 * back, with a wake-up set for when it may go, or refused with a notice.
+	 * 
+	 * @param msg message just decoded from the client
+	 * @return True if the message may be processed now.
+	 */
+	private boolean admit(Message msg) {
+		if (msg.isControlMessage()) {
+			return true;
+		}
+		RateLimiter rateLimiter = Prattle.getRateLimiter();
+		long wait = rateLimiter.acquire(name, getRemoteHost());
+		if (wait <= 0) {
+			limited = false;
+			return true;
+		}
+		if (!limited) {
+			logger.log(Level.INFO, "Rate limiting {0} ({1} messages over the limit so far)",
+					new Object[] { name, rateLimiter.getLimited(name) });
+			limited = true;
+		}
+		if (rateLimiter.getPolicy() == RateLimiter.Policy.DELAY) {
+			throttled = msg;
+			throttledUntil = System.nanoTime() + wait;
+			Prattle.scheduleTimer(() -> Prattle.requestService(this), TimeUnit.NANOSECONDS.toMillis(wait) + 1);
+		} else {
+			enqueueMessage(Message.makeBroadcastMessage(ServerConstants.BOUNCER_ID,
+					"Last message was rejected because you are sending messages too quickly."));
+		}
+		return false;
+	}
+
+	/**
+	 * Get the address this client connects from, without the port.
+	 * 
+	 * @return the remote host, or null if it cannot be found
+	 */
+	private String getRemoteHost() {
+		if (remoteHost == null) {
+			try {
+				SocketAddress address = socket.getRemoteAddress();
+				if (address instanceof InetSocketAddress) {
+					remoteHost = ((InetSocketAddress) address).getHostString();
+				}
+			} catch (IOException e) {
+				logger.log(Level.FINE, "No remote address", e);
+			}
+		}
+		return remoteHost;
+	}
+
 	/**
 	 * Try allowing this user to set his/her user name to the given username.
 	 * 
@@ -280,6 +506,7 @@ public class ClientRunnable implements Runnable {
 	 */
 	public void enqueueMessage(Message message) {
 		waitingList.add(message);
+		Prattle.requestService(this);
 	}
 
 	/**
@@ -325,54 +552,78 @@ public class ClientRunnable implements Runnable {
 	 * @see java.lang.Thread#run()
 	 */
 	public void run() {
+		runOnce(true);
+	}
+
+	/**
+	 * Send any queued output and check this client's timers without touching its
+	 * input. Used when another thread owns the (blocking) reads for this client.
+	 */
+	void runWithoutInput() {
+		runOnce(false);
+	}
+
+	/**
+	 * Block until at least one message has been decoded from this client's input.
+	 * Only meaningful when the client's channel is in blocking mode.
+	 * 
+	 * @return True if a message is ready; false once the connection has ended.
+	 */
+	boolean awaitInput() {
+		long wait;
+		while (throttled != null && (wait = throttledUntil - System.nanoTime()) > 0) {
+			try {
+				TimeUnit.NANOSECONDS.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		if (throttled != null) {
+			return true;
+		}
+		while (!input.hasNextMessage()) {
+			if (input.isEndOfStream() || input.isClosed()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Perform one round of work for this client.
+	 * 
+	 * @param readInput whether this round may read and process input
+	 */
+	private void runOnce(boolean readInput) {
 		boolean terminate = false;
 		// The client must be initialized before we can do anything else
 		if (!initialized) {
-			checkForInitialization();
+			if (readInput) {
+				checkForInitialization();
+			}
 		} else {
 			try {
-				// Client has already been initialized, so we should first check
-				// if there are any input
-				// messages.
-				if (input.hasNextMessage()) {
-					// Get the next message
-					Message msg = input.nextMessage();
-					// Update the time until we terminate the client for
-					// inactivity.
-					terminateInactivity.setTimeInMillis(
-							new GregorianCalendar().getTimeInMillis() + TERMINATE_AFTER_INACTIVE_BUT_LOGGEDIN_IN_MS);
-
-					if(msg.isGroupMessage()){
-						responseToGroup(msg);
+				// Client has already been initialized, so we should first process
+				// the input messages that have arrived, up to our budget. Only the
+				// first check may read the socket (which could block in thread
+				// mode); the rest drain what that read decoded.
+				// A message held back by the rate limit goes first, and nothing more
+				// is read until it has gone.
+				int budget = ServerConstants.INBOUND_BUDGET;
+				boolean more = throttled != null ? !isThrottled() : readInput && input.hasNextMessage();
+				while (more && !terminate && initialized && budget-- > 0) {
+					Message msg = throttled != null ? throttled : input.nextMessage();
+					throttled = null;
+					if (admit(msg)) {
+						terminate = processMessage(msg);
 					}
-					// If the message is a broadcast message, send it out
-					if (msg.isDisplayMessage()) {
-						// Check if the message is legal formatted
-						if (messageChecks(msg)) {
-							// Check for our "special messages"
-							if ((msg.isBroadcastMessage()) && (!broadcastMessageIsSpecial(msg))) {
-								// Check for our "special messages"
-								if ((msg.getText() != null)
-										&& (msg.getText().compareToIgnoreCase(ServerConstants.BOMB_TEXT) == 0)) {
-									initialized = false;
-									Prattle.broadcastMessage(Message.makeQuitMessage(name));
-								} else {
-									Prattle.broadcastMessage(msg);
-								}
-							}
-						} else {
-							Message sendMsg;
-							sendMsg = Message.makeBroadcastMessage(ServerConstants.BOUNCER_ID,
-									"Last message was rejected because it specified an incorrect user name.");
-							enqueueMessage(sendMsg);
-						}
-					} else if (msg.terminate()) {
-						// Stop sending the poor client message.
-						terminate = true;
-						// Reply with a quit message.
-						enqueueMessage(Message.makeQuitMessage(name));
-					}
-					// Otherwise, ignore it (for now).
+					more = throttled == null && input.hasBufferedMessages();
+				}
+				// Send whatever the socket would not take last time first.
+				output.flush();
+				if (!resends.isEmpty()) {
+					sendResends();
 				}
 				if (!immediateResponse.isEmpty()) {
 					while (!immediateResponse.isEmpty()) {
@@ -382,7 +633,7 @@ public class ClientRunnable implements Runnable {
 
 				// Check to make sure we have a client to send to.
 				boolean processSpecial = !specialResponse.isEmpty()
-						&& ((!initialized) || (!waitingList.isEmpty()) || sendResponses.before(new Date()));
+						&& ((!initialized) || (!waitingList.isEmpty()) || sendResponses <= System.currentTimeMillis());
 				boolean keepAlive = !processSpecial;
 				// Send the responses to any special messages we were asked.
 				if (processSpecial) {
@@ -392,19 +643,25 @@ public class ClientRunnable implements Runnable {
 						keepAlive |= sendMessage(specialResponse.remove());
 					}
 				}
-				if (!waitingList.isEmpty()) {
+				if (!waitingList.isEmpty() && resends.isEmpty()) {
 					if (!processSpecial) {
 						keepAlive = false;
 					}
-					// Send out all of the message that have been added to the
-					// queue.
+					// Encode the messages that have been added to the queue, in
+					// priority order, and send them out a batch at a time. Stop once
+					// the socket is full, even part way through a batch, so that
+					// whatever is left stays queued by priority instead of behind
+					// bytes already handed to the socket.
 					do {
-						Message msg = waitingList.remove();
-						boolean sentGood = sendMessage(msg);
-						keepAlive |= sentGood;
-					} while (!waitingList.isEmpty());
+						int batch = OUTBOUND_BATCH_SIZE;
+						Message msg;
+						while (batch-- > 0 && !output.isBlocked() && (msg = waitingList.poll()) != null) {
+							boolean sentGood = queueMessage(msg);
+							keepAlive |= sentGood;
+						}
+					} while (output.flush() && !waitingList.isEmpty());
 				}
-				terminate |= !keepAlive;
+				terminate |= !keepAlive || output.isFailed() || waitingList.isOverflowed();
 			} finally {
 				// When it is appropriate, terminate the current client.
 				if (terminate) {
@@ -415,12 +672,201 @@ public class ClientRunnable implements Runnable {
 		// Finally, check if this client have been inactive for too long and,
 		// when they have, terminate
 		// the client.
-		if (!terminate && terminateInactivity.before(new GregorianCalendar())) {
+		if (!terminate && (expired || terminateInactivity <= System.currentTimeMillis())) {
 			logger.log(Level.INFO, "Timing out or forcing off a user {0}",name);
 			terminateClient();
+		} else if (!terminate && input.isEndOfStream() && !input.hasBufferedMessages()) {
+			// The client hung up without saying goodbye.
+			logger.log(Level.INFO, "Connection closed by user {0}", name);
+			terminateClient();
+		}
+	}
+
+	/**
+	 * Act on one message received from this client.
+	 * 
+	 * @param msg Message the client sent.
+	 * @return True if the client asked to be terminated; false otherwise.
+	 */
+	private boolean processMessage(Message msg) {
+		boolean terminate = false;
+		// Update the time until we terminate the client for
+		// inactivity.
+		terminateInactivity = System.currentTimeMillis() + TERMINATE_AFTER_INACTIVE_BUT_LOGGEDIN_IN_MS;
+
+		if (msg.isSequence()) {
+			handleSequence(msg);
+		}
+		if (msg.isResume()) {
+			handleResume(msg);
+		}
+		if(msg.isGroupMessage()){
+			responseToGroup(msg);
+		}
+		if (msg.isIndividualMessage()) {
+			// Direct messages are routed and saved under their sender's name.
+			if (messageChecks(msg)) {
+				responseToIndividual(msg);
+			} else {
+				rejectWrongName();
+			}
+		}
+		// If the message is a broadcast message, send it out
+		if (msg.isDisplayMessage()) {
+			// Check if the message is legal formatted
+			if (messageChecks(msg)) {
+				// Check for our "special messages"
+				if ((msg.isBroadcastMessage()) && (!broadcastMessageIsSpecial(msg))) {
+					// Check for our "special messages"
+					if ((msg.getText() != null)
+							&& (msg.getText().compareToIgnoreCase(ServerConstants.BOMB_TEXT) == 0)) {
+						initialized = false;
+						Prattle.broadcastMessage(Message.makeQuitMessage(name));
+					} else {
+						Prattle.broadcastMessage(msg);
+					}
+				}
+			} else {
+				rejectWrongName();
+			}
+		} else if (msg.terminate()) {
+			// Stop sending the poor client message.
+			terminate = true;
+			// Reply with a quit message.
+			enqueueMessage(Message.makeQuitMessage(name));
+		}
+		// Otherwise, ignore it (for now).
+		return terminate;
+	}
+
+	/**
+	 * Claim this client for a worker thread.
+	 * 
+	 * @return True if the caller now owns the client and must run it; false if it
+	 *         is already scheduled.
+	 */
+	boolean markScheduled() {
+		return scheduled.compareAndSet(false, true);
+	}
+
+	/**
+	 * Release the claim taken by {@link #markScheduled()}.
+	 */
+	void clearScheduled() {
+		scheduled.set(false);
+	}
+
+	/**
+	 * Check whether running this client now would do anything useful.
+	 * 
+	 * @return True if there are decoded messages to process, or messages to send
+	 *         and a socket with room for them.
+	 */
+	boolean hasPendingWork() {
+		return (!isThrottled() && (throttled != null || input.hasBufferedMessages())) || !immediateResponse.isEmpty()
+				|| ((!waitingList.isEmpty() || !resends.isEmpty()) && !output.hasPendingOutput());
+	}
+
+	/**
+	 * Check whether input is paused because the client went over its rate limit.
+	 * 
+	 * @return True if a message is being held back and is not yet due.
+	 */
+	boolean isThrottled() {
+		return throttled != null && throttledUntil - System.nanoTime() > 0;
+	}
+
+	/**
+	 * Check whether output is parked waiting for the socket to become writable.
+	 * 
+	 * @return True if there are unsent bytes for this client.
+	 */
+	boolean hasPendingOutput() {
+		return output.hasPendingOutput();
+	}
+
+	/**
+	 * Set the inactivity deadline from now and put the idle timer on the wheel.
+	 */
+	private void startIdleTimer() {
+		terminateInactivity = System.currentTimeMillis() + terminateTime;
+		idleTimer = Prattle.scheduleTimer(this::idleTimerFired, terminateTime);
+	}
+
+	/**
+	 * Called by the timing wheel when the idle timer runs out. Activity since the
+	 * timer was set only pushed the deadline back, so either the client really is
+	 * idle and must be run to be timed out, or the timer is set again for the time
+	 * remaining.
+	 */
+	private void idleTimerFired() {
+		if (!socket.isOpen()) {
+			return;
+		}
+		long remaining = terminateInactivity - System.currentTimeMillis();
+		if (remaining <= 0) {
+			Prattle.requestService(this);
+		} else {
+			TimingWheel.Timeout next = Prattle.scheduleTimer(this::idleTimerFired, remaining);
+			idleTimer = next;
+			if (!socket.isOpen()) {
+				// The client was terminated meanwhile and may have cancelled the old timer.
+				next.cancel();
+			}
 		}
 	}
 
+	/**
+	 * Terminate this client once the given time has passed, however active it is.
+	 * 
+	 * @param duration number of milliseconds the client may stay connected
+	 */
+	void expireAfter(long duration) {
+		expiryTimer = Prattle.scheduleTimer(() -> {
+			expired = true;
+			Prattle.requestService(this);
+		}, duration);
+	}
+
+	/**
+	 * Take this client's timers off the wheel.
+	 */
+	private void cancelTimers() {
+		TimingWheel.Timeout[] timers = { idleTimer, specialTimer, expiryTimer };
+		for (TimingWheel.Timeout timer : timers) {
+			if (timer != null) {
+				timer.cancel();
+			}
+		}
+	}
+
+	/**
+	 * Get the event loop that owns this client.
+	 * 
+	 * @return the owning reactor, or null when not running as a reactor
+	 */
+	ClientReactor getReactor() {
+		return reactor;
+	}
+
+	/**
+	 * Set the event loop that owns this client.
+	 * 
+	 * @param reactor the reactor watching this client's socket
+	 */
+	void setReactor(ClientReactor reactor) {
+		this.reactor = reactor;
+	}
+
+	/**
+	 * Get the channel over which this client communicates.
+	 * 
+	 * @return the client's socket channel
+	 */
+	SocketChannel getChannel() {
+		return socket;
+	}
+
 	/**
 	 * Store the object used by this client runnable to control when it is scheduled
 	 * for execution in the thread pool.
@@ -446,9 +892,16 @@ public class ClientRunnable implements Runnable {
 			logger.log(Level.WARNING, "Message", e);
 		} finally {
 			// Remove the client from our client listing.
+			cancelTimers();
+			if (deliveryWindow != null) {
+				// Keep what the client has not acknowledged in case it reconnects.
+				Prattle.parkDeliveryWindow(name, deliveryWindow);
+			}
 			Prattle.removeClient(this);
 			// And remove the client from our client pool.
-			runnableMe.cancel(false);
+			if (runnableMe != null) {
+				runnableMe.cancel(false);
+			}
 		}
 	}
 
@@ -471,6 +924,20 @@ public class ClientRunnable implements Runnable {
 
 	}
 
+	/**
+	 * Given a direct message, delivers it to its receiver
+	 * @param message
+	 */
+	public void responseToIndividual(Message message) {
+		try {
+			Prattle.sendIndividualMessage(message);
+		}
+		catch (Exception e) {
+			logger.log(Level.SEVERE, "Cannot send individual message");
+			logger.log(Level.SEVERE, e.getMessage());
+		}
+	}
+
 	public ScheduledFuture<ClientRunnable> getRunnableMe() {
 		return runnableMe;
 	}
@@ -0,0 +1,141 @@
+package edu.northeastern.ccs.im.server;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.northeastern.ccs.im.Message;
+
+/**
+ * Sequence numbers and retransmit window for the messages sent to one client.
+ * Every chat message written to the client gets the next number and is kept
+ * until the client acknowledges it with a cumulative SEQ frame. Each window has
+ * a random token, given to the client in the server's SEQ reply. When a client
+ * reconnects and names that token, the window of its previous connection is
+ * handed to the new one and whatever was not acknowledged is sent again; other
+ * sessions of the same user keep windows of their own.
+ * <p>
+ * The window holds a fixed number of messages. If the client falls further
+ * behind than that, the oldest messages are given up and counted as lost; the
+ * client notices the gap from the sequence number the server announces when it
+ * resumes.
+ */
+class DeliveryWindow {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final int TOKEN_RADIX = 36;
+
+    /** Messages not yet acknowledged, indexed by sequence number modulo the capacity. */
+    private final Message[] ring;
+
+    /** Sequence number the next message will get; numbering starts at 1. */
+    private long nextSequence = 1;
+
+    /** Highest sequence number up to which the client has everything. */
+    private long acknowledged;
+
+    /** Number of messages pushed out of the window before being acknowledged. */
+    private long lost;
+
+    private final String token;
+
+    /**
+     * Create an empty window.
+     *
+     * @param capacity most unacknowledged messages kept
+     */
+    DeliveryWindow(int capacity) {
+        ring = new Message[Math.max(1, capacity)];
+        token = Long.toString(RANDOM.nextLong() & Long.MAX_VALUE, TOKEN_RADIX);
+    }
+
+    /**
+     * Token a client names to take this window over when it reconnects.
+     *
+     * @return the window's token
+     */
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * Number the next message sent and keep it until it is acknowledged.
+     *
+     * @param message message being written to the client
+     * @return the message's sequence number
+     */
+    synchronized long record(Message message) {
+        long sequence = nextSequence++;
+        if (sequence - acknowledged > ring.length) {
+            // The slot still holds the oldest unacknowledged message; give it up.
+            acknowledged = sequence - ring.length;
+            lost++;
+        }
+        ring[slot(sequence)] = message;
+        return sequence;
+    }
+
+    /**
+     * Note that the client has received everything up to and including the given
+     * sequence number. Numbers not yet sent and numbers already acknowledged are
+     * ignored.
+     *
+     * @param sequence highest sequence number received without a gap
+     */
+    synchronized void acknowledge(long sequence) {
+        long upTo = Math.min(sequence, nextSequence - 1);
+        for (long s = acknowledged + 1; s <= upTo; s++) {
+            ring[slot(s)] = null;
+        }
+        if (upTo > acknowledged) {
+            acknowledged = upTo;
+        }
+    }
+
+    /**
+     * Get the messages sent but not acknowledged, oldest first. Their sequence
+     * numbers run from {@link #firstUnacknowledged()}.
+     *
+     * @return the unacknowledged messages
+     */
+    synchronized List<Message> unacknowledged() {
+        List<Message> result = new ArrayList<>((int) (nextSequence - 1 - acknowledged));
+        for (long s = acknowledged + 1; s < nextSequence; s++) {
+            result.add(ring[slot(s)]);
+        }
+        return result;
+    }
+
+    /**
+     * Sequence number of the oldest message that has not been acknowledged, or of
+     * the next message if everything has been.
+     *
+     * @return the first sequence number that would be sent again
+     */
+    synchronized long firstUnacknowledged() {
+        return acknowledged + 1;
+    }
+
+    /**
+     * Sequence number the next message will get.
+     *
+     * @return the next sequence number
+     */
+    synchronized long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * Number of messages given up because the client fell too far behind.
+     *
+     * @return lost messages
+     */
+    synchronized long getLost() {
+        return lost;
+    }
+
+    private int slot(long sequence) {
+        return (int) (sequence % ring.length);
+    }
+}
@@ -0,0 +1,412 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.AbstractQueue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.northeastern.ccs.im.Message;
+
+/**
+ * Messages waiting to be written to one client, bounded both by number of
+ * messages and by encoded bytes. Any thread may add messages. The thread
+ * running the client takes them to send, but a sender whose limit has the
+ * DROP_OLDEST policy also removes queued messages to make room, so each lane is
+ * a concurrent queue; only the turn-taking between lanes is left to the client
+ * thread alone.
+ * <p>
+ * Messages are kept in three {@link Lane}s. Control frames always leave first,
+ * so a login acknowledgement never waits behind a flood of chat. Direct and
+ * group/broadcast traffic then take turns by weight: each turn the direct lane
+ * may send up to its weight in messages before the bulk lane gets its share,
+ * so neither starves the other. Order is kept within a lane, not across lanes.
+ * <p>
+ * Each limit has its own {@link OverflowPolicy} deciding what happens when a
+ * new message would break it; dropping the oldest takes bulk traffic first and
+ * control frames last. The limits are checked without locking, so under heavy
+ * contention they may be overshot by the number of concurrent senders. Every
+ * message dropped is counted, per queue and server-wide per policy.
+ */
+class OutboundQueue extends AbstractQueue<Message> {
+
+    private static final Logger logger = Logger.getLogger(OutboundQueue.class.getName());
+
+    /**
+     * What to do with a message that would take the queue over one of its limits.
+     */
+    enum OverflowPolicy {
+        /** Throw away the oldest queued messages to make room. */
+        DROP_OLDEST,
+        /** Throw away the new message. */
+        DROP_NEWEST,
+        /** Keep the new message in the recipient's offline store instead. */
+        SPILL,
+        /** Give up on the recipient: reject the message and disconnect them. */
+        DISCONNECT;
+
+        /**
+         * Read a policy from its name, ignoring case and accepting dashes.
+         *
+         * @param name         name such as "drop-oldest"
+         * @param defaultValue policy used when the name is missing or unknown
+         * @return the matching policy
+         */
+        static OverflowPolicy parse(String name, OverflowPolicy defaultValue) {
+            if (name != null) {
+                for (OverflowPolicy policy : values()) {
+                    if (policy.name().equalsIgnoreCase(name.trim().replace('-', '_'))) {
+                        return policy;
+                    }
+                }
+                logger.log(Level.WARNING, "Unknown overflow policy {0}", name);
+            }
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Classes of outbound traffic, highest priority first.
+     */
+    enum Lane {
+        /** Session control: HLO, ACK, NAK, BYE, SEQ and RSM. */
+        CONTROL,
+        /** Messages sent to this user alone. */
+        DIRECT,
+        /** Group and broadcast messages. */
+        BULK;
+
+        /**
+         * Find the lane a message travels in.
+         *
+         * @param message message to classify
+         * @return the message's lane
+         */
+        static Lane of(Message message) {
+            if (message.isControlMessage()) {
+                return CONTROL;
+            }
+            return message.isIndividualMessage() ? DIRECT : BULK;
+        }
+    }
+
+    /** Messages dropped by all queues, indexed by the policy that dropped them. */
+    private static final AtomicLong[] DROPPED_BY_POLICY = new AtomicLong[OverflowPolicy.values().length];
+
+    static {
+        for (int i = 0; i < DROPPED_BY_POLICY.length; i++) {
+            DROPPED_BY_POLICY[i] = new AtomicLong();
+        }
+    }
+
+    /** Queued messages of each lane, indexed by the lane's ordinal. */
+    private final Queue<Message>[] lanes;
+
+    private final AtomicInteger count = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final int maxMessages;
+
+    private final OverflowPolicy messagePolicy;
+
+    private final long maxBytes;
+
+    private final OverflowPolicy bytePolicy;
+
+    /** Where messages go under the SPILL policy. */
+    private final Consumer<Message> spill;
+
+    /** Messages the direct lane may send for each turn of the bulk lane. */
+    private final int directWeight;
+
+    /** Messages the bulk lane may send in its turn. */
+    private final int bulkWeight;
+
+    /** Lane whose turn it is, DIRECT or BULK; only touched by the consumer. */
+    private Lane turn = Lane.DIRECT;
+
+    /** Messages the lane whose turn it is may still send this turn. */
+    private int credit;
+
+    /** Set once a limit with the DISCONNECT policy has been broken. */
+    private volatile boolean overflowed;
+
+    /**
+     * Create a queue with the given limits.
+     *
+     * @param maxMessages   most messages held
+     * @param messagePolicy what to do when there are too many messages
+     * @param maxBytes      most encoded bytes held
+     * @param bytePolicy    what to do when there are too many bytes
+     * @param spill         receives messages rejected under the SPILL policy
+     */
+    OutboundQueue(int maxMessages, OverflowPolicy messagePolicy, long maxBytes, OverflowPolicy bytePolicy,
+                  Consumer<Message> spill) {
+        this(maxMessages, messagePolicy, maxBytes, bytePolicy, spill, 1, 1);
+    }
+
+    /**
+     * Create a queue with the given limits and lane weights.
+     *
+     * @param maxMessages   most messages held
+     * @param messagePolicy what to do when there are too many messages
+     * @param maxBytes      most encoded bytes held
+     * @param bytePolicy    what to do when there are too many bytes
+     * @param spill         receives messages rejected under the SPILL policy
+     * @param directWeight  direct messages sent per turn
+     * @param bulkWeight    group and broadcast messages sent per turn
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    OutboundQueue(int maxMessages, OverflowPolicy messagePolicy, long maxBytes, OverflowPolicy bytePolicy,
+                  Consumer<Message> spill, int directWeight, int bulkWeight) {
+        this.maxMessages = maxMessages;
+        this.messagePolicy = messagePolicy;
+        this.maxBytes = maxBytes;
+        this.bytePolicy = bytePolicy;
+        this.spill = spill;
+        this.directWeight = Math.max(1, directWeight);
+        this.bulkWeight = Math.max(1, bulkWeight);
+        this.credit = this.directWeight;
+        lanes = new Queue[Lane.values().length];
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    /**
+     * Add a message, applying the overflow policies if it does not fit.
+     *
+     * @param message message to be sent
+     * @return True if the message was queued; false if it was refused
+     */
+    @Override
+    public boolean offer(Message message) {
+        long size = sizeOf(message);
+        OverflowPolicy policy = violatedPolicy(size);
+        while (policy == OverflowPolicy.DROP_OLDEST && evictOldest()) {
+            policy = violatedPolicy(size);
+        }
+        if (policy != null) {
+            reject(message, policy);
+            return false;
+        }
+        lanes[Lane.of(message).ordinal()].add(message);
+        count.incrementAndGet();
+        bytes.addAndGet(size);
+        return true;
+    }
+
+    /**
+     * Remove the next message to send: control frames first, then direct and
+     * bulk traffic by weight. Only the thread running the client may call this;
+     * senders evicting under DROP_OLDEST take from the lanes directly.
+     *
+     * @return the next message, or null if the queue is empty
+     */
+    @Override
+    public Message poll() {
+        Message message = take(Lane.CONTROL);
+        if (message != null) {
+            return message;
+        }
+        // At most: this lane, the other lane, then this lane again with fresh credit.
+        for (int i = 0; i < 3; i++) {
+            if (credit > 0) {
+                message = take(turn);
+                if (message != null) {
+                    credit--;
+                    return message;
+                }
+            }
+            // This lane is empty or has had its share; hand the turn over.
+            turn = turn == Lane.DIRECT ? Lane.BULK : Lane.DIRECT;
+            credit = turn == Lane.DIRECT ? directWeight : bulkWeight;
+        }
+        return null;
+    }
+
+    /**
+     * Look at the message {@link #poll()} would return next.
+     *
+     * @return the next message, or null if the queue is empty
+     */
+    @Override
+    public Message peek() {
+        Message message = lanes[Lane.CONTROL.ordinal()].peek();
+        if (message == null && credit > 0) {
+            message = lanes[turn.ordinal()].peek();
+        }
+        if (message == null) {
+            message = lanes[(turn == Lane.DIRECT ? Lane.BULK : Lane.DIRECT).ordinal()].peek();
+        }
+        if (message == null && credit <= 0) {
+            message = lanes[turn.ordinal()].peek();
+        }
+        return message;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Queue<Message> lane : lanes) {
+            if (!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return count.get();
+    }
+
+    /**
+     * Iterate over the queued messages lane by lane, highest priority first; the
+     * iterator does not support removal.
+     */
+    @Override
+    public Iterator<Message> iterator() {
+        List<Message> snapshot = new ArrayList<>();
+        for (Queue<Message> lane : lanes) {
+            snapshot.addAll(lane);
+        }
+        return Collections.unmodifiableList(snapshot).iterator();
+    }
+
+    /**
+     * Number of messages waiting in one lane.
+     *
+     * @param lane lane of interest
+     * @return messages queued in that lane
+     */
+    int size(Lane lane) {
+        return lanes[lane.ordinal()].size();
+    }
+
+    /**
+     * Encoded size of everything queued.
+     *
+     * @return queued bytes
+     */
+    long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Number of messages this queue has dropped, whatever the policy.
+     *
+     * @return messages dropped
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Whether a limit with the DISCONNECT policy has been broken, so the client
+     * should be disconnected.
+     *
+     * @return True if the client must be dropped
+     */
+    boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Number of messages dropped by every queue in this server under a policy.
+     *
+     * @param policy policy of interest
+     * @return messages dropped under that policy
+     */
+    static long getDroppedTotal(OverflowPolicy policy) {
+        return DROPPED_BY_POLICY[policy.ordinal()].get();
+    }
+
+    /**
+     * Find the limit a message of the given size would break.
+     *
+     * @param size encoded size of the new message
+     * @return the policy of the broken limit (the count limit first), or null
+     */
+    private OverflowPolicy violatedPolicy(long size) {
+        if (count.get() + 1 > maxMessages) {
+            return messagePolicy;
+        }
+        if (bytes.get() + size > maxBytes) {
+            return bytePolicy;
+        }
+        return null;
+    }
+
+    /**
+     * Throw away the oldest message of the lowest priority lane to make room.
+     *
+     * @return True if a message was removed; false if the queue was empty
+     */
+    private boolean evictOldest() {
+        for (int i = lanes.length - 1; i >= 0; i--) {
+            if (take(Lane.values()[i]) != null) {
+                recordDrop(OverflowPolicy.DROP_OLDEST);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove the oldest message of a lane, keeping the totals in step.
+     *
+     * @param lane lane to take from
+     * @return the message, or null if the lane is empty
+     */
+    private Message take(Lane lane) {
+        Message message = lanes[lane.ordinal()].poll();
+        if (message != null) {
+            count.decrementAndGet();
+            bytes.addAndGet(-sizeOf(message));
+        }
+        return message;
+    }
+
+    /**
+     * Deal with a message that cannot be queued.
+     *
+     * @param message the message being refused
+     * @param policy  policy of the limit it would break
+     */
+    private void reject(Message message, OverflowPolicy policy) {
+        switch (policy) {
+        case SPILL:
+            spill.accept(message);
+            break;
+        case DISCONNECT:
+            if (!overflowed) {
+                logger.log(Level.WARNING, "{0} messages waiting to be sent -- dropping this user.", size());
+            }
+            overflowed = true;
+            break;
+        default:
+            // DROP_NEWEST, or DROP_OLDEST on a message too big for an empty queue.
+            break;
+        }
+        recordDrop(policy);
+    }
+
+    private void recordDrop(OverflowPolicy policy) {
+        dropped.incrementAndGet();
+        DROPPED_BY_POLICY[policy.ordinal()].incrementAndGet();
+    }
+
+    private static long sizeOf(Message message) {
+        return message.encode().remaining();
+    }
+}
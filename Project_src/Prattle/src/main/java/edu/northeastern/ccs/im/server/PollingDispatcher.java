@@ -0,0 +1,57 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The original execution model: every client is run on a fixed schedule,
+ * whether or not it has any traffic.
+ */
+class PollingDispatcher implements ClientDispatcher {
+
+    /**
+     * Delay between times the thread pool runs the client check.
+     */
+    private static final int CLIENT_CHECK_DELAY = 200;
+
+    private final ScheduledExecutorService threadPool;
+
+    /**
+     * @param threadPool pool on which every client is polled
+     */
+    PollingDispatcher(ScheduledExecutorService threadPool) {
+        this.threadPool = threadPool;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void register(ClientRunnable client) {
+        // Have the client executed by our pool of threads.
+        @SuppressWarnings("rawtypes")
+        ScheduledFuture clientFuture = threadPool.scheduleAtFixedRate(client, CLIENT_CHECK_DELAY,
+                CLIENT_CHECK_DELAY, TimeUnit.MILLISECONDS);
+        client.setFuture(clientFuture);
+    }
+
+    /**
+     * Nothing to do; the client cancels its own future when it terminates.
+     */
+    @Override
+    public void deregister(ClientRunnable client) {
+        // The scheduled future is cancelled by ClientRunnable.terminateClient.
+    }
+
+    /**
+     * Nothing to do; the client will be polled on its next tick.
+     */
+    @Override
+    public void dispatch(ClientRunnable client) {
+        // Polled clients pick up their queued output on the next tick.
+    }
+
+    @Override
+    public void shutdown() {
+        threadPool.shutdown();
+    }
+}
@@ -1,6 +1,7 @@
 package edu.northeastern.ccs.im.server;
 
 
+import java.io.File;
 import java.io.IOException;
 
 import java.net.InetSocketAddress;
@@ -11,11 +12,11 @@ import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -46,14 +47,20 @@ public abstract class Prattle {
     private static final int DELAY_IN_MS = 50;
 
     /**
-     * Number of threads available in our thread pool.
+     * Resolution of the timing wheel; timers fire at most this late.
      */
-    private static final int THREAD_POOL_SIZE = 20;
+    private static final int TIMER_TICK_IN_MS = 100;
 
     /**
-     * Delay between times the thread pool runs the client check.
+     * Number of slots in the timing wheel.
      */
-    private static final int CLIENT_CHECK_DELAY = 200;
+    private static final int TIMER_WHEEL_SIZE = 512;
+
+    /**
+     * Server-wide timing wheel driving idle time-outs, delayed responses and
+     * agent expiry.
+     */
+    private static final TimingWheel timers = new TimingWheel(TIMER_TICK_IN_MS, TIMER_WHEEL_SIZE, "prattle-timer");
 
     /**
      * Collection of threads that are currently being used.
@@ -64,15 +71,33 @@ public abstract class Prattle {
 
     private static final Logger logger = Logger.getLogger(ScanNetNB.class.getName());
 
-    private static ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(THREAD_POOL_SIZE);
+    private static ScheduledExecutorService threadPool = Executors.newScheduledThreadPool(ServerConstants.WORKER_THREADS);
+
+    /**
+     * Who is online, which groups exist and who is tapping whom; safe to read from
+     * any thread without locking.
+     */
+    private static RoutingRegistry registry;
+
+    /**
+     * Retransmit windows of recently closed connections, by user and window
+     * token, waiting for the connection to be resumed.
+     */
+    private static final ConcurrentMap<String, DeliveryWindow> parkedWindows = new ConcurrentHashMap<>();
 
-    private static Map<String, Group> groupMap;
+    /** Limits on how fast users and addresses may send chat messages. */
+    private static final RateLimiter rateLimiter = new RateLimiter();
 
-    private static Map<String, ClientRunnable> userMap;
+    /** The message journal, when messages are kept there instead of the directory. */
+    private static final JournalMessageRepository journal = openJournal(ServerConstants.MESSAGE_STORE);
 
-    private static Map<String, ClientRunnable> userAgentMap;
+    /** Saves messages to the directory in the background. */
+    private static final WriteBehindStore messageStore = new WriteBehindStore(Prattle::saveMessage,
+            ServerConstants.PERSIST_QUEUE_CAPACITY, ServerConstants.PERSIST_WRITERS,
+            ServerConstants.PERSIST_BATCH_SIZE, ServerConstants.PERSIST_MAX_RETRIES,
+            ServerConstants.PERSIST_RETRY_DELAY_IN_MS, ServerConstants.PERSIST_OFFER_TIMEOUT_IN_MS);
 
-    private static Map<String, ClientRunnable> groupAgentMap;
+    private static ClientDispatcher dispatcher;
 
     private static ParentalControl parentalControl;
 
@@ -84,10 +109,85 @@ public abstract class Prattle {
     static {
         // Create the new queue of active threads.
         active = new ConcurrentLinkedQueue<>();
-        groupMap = new HashMap<>();
-        userMap = new HashMap<>();
-        userAgentMap = new HashMap<>();
-        groupAgentMap = new HashMap<>();
+        registry = new RoutingRegistry();
+        dispatcher = createDispatcher(ServerConstants.SERVER_MODE);
+        // Give queued messages a chance to reach the directory before we exit.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            messageStore.shutdown(ServerConstants.PERSIST_SHUTDOWN_WAIT_IN_MS);
+            if (journal != null) {
+                journal.close();
+            }
+        }, "prattle-store-flush"));
+    }
+
+    /**
+     * Open the message journal if the requested message store is the journal,
+     * falling back to the directory if it cannot be opened.
+     *
+     * @param store one of the message stores in ServerConstants
+     * @return the journal, or null if messages go to the directory
+     */
+    private static JournalMessageRepository openJournal(String store) {
+        if (!ServerConstants.JOURNAL_STORE.equalsIgnoreCase(store)) {
+            return null;
+        }
+        try {
+            JournalMessageRepository repository = new JournalMessageRepository(
+                    new File(ServerConstants.JOURNAL_DIR), ServerConstants.JOURNAL_SEGMENT_BYTES,
+                    ServerConstants.JOURNAL_SYNC);
+            logger.log(Level.INFO, "Saving messages to the journal in {0}", ServerConstants.JOURNAL_DIR);
+            return repository;
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not open message journal, falling back to the directory", e);
+            return null;
+        }
+    }
+
+    /**
+     * Build the dispatcher for the requested server mode, falling back to polling
+     * if the reactor cannot be started.
+     *
+     * @param mode one of the server modes in ServerConstants
+     * @return the dispatcher that will run our clients
+     */
+    private static ClientDispatcher createDispatcher(String mode) {
+        if (ServerConstants.THREAD_MODE.equalsIgnoreCase(mode)) {
+            ThreadPerConnectionDispatcher threads = new ThreadPerConnectionDispatcher();
+            logger.log(Level.INFO, "Running a thread per connection, virtual: {0}", threads.usesVirtualThreads());
+            return threads;
+        }
+        if (ServerConstants.REACTOR_MODE.equalsIgnoreCase(mode)) {
+            try {
+                ReactorGroup reactors = new ReactorGroup(ServerConstants.REACTOR_THREADS, threadPool);
+                logger.log(Level.INFO, "Running {0} event loops", reactors.size());
+                return reactors;
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not start reactor, falling back to polling", e);
+            }
+        }
+        return new PollingDispatcher(threadPool);
+    }
+
+    /**
+     * Run the task on the server's timing wheel once the delay has passed.
+     *
+     * @param task    short action to run; real work should be dispatched
+     * @param delayMs delay in milliseconds
+     * @return handle with which the timer can be cancelled
+     */
+    static TimingWheel.Timeout scheduleTimer(Runnable task, long delayMs) {
+        return timers.schedule(task, delayMs);
+    }
+
+    /**
+     * Ask for the given client to be run because it has work pending.
+     *
+     * @param client client that has output queued
+     */
+    static void requestService(ClientRunnable client) {
+        if (dispatcher != null) {
+            dispatcher.dispatch(client);
+        }
     }
 
     /**
@@ -191,7 +291,52 @@ public abstract class Prattle {
         // can remove it.
         if (!active.remove(dead)) {
             logger.info("Could not find a thread that I tried to remove!\n");
+        } else {
+            dispatcher.deregister(dead);
+            String userName = dead.getName();
+            registry.offline(userName, dead);
+            registry.removeAgent(dead);
+            if (userName != null && !registry.isOnline(userName)) {
+                scheduleTimer(() -> forgetUser(userName), ServerConstants.RESUME_TIMEOUT_IN_MS);
+            }
+        }
+    }
+
+    /**
+     * Stop keeping missed messages in memory for a user who has not come back,
+     * moving those not yet replayed to their offline store, where any that did
+     * not fit in the ring already are. Does nothing if the user has been back
+     * since.
+     *
+     * @param userName user who went offline a while ago
+     */
+    private static void forgetUser(String userName) {
+        ReplayRing ring = registry.forgetIfOfflineFor(userName, ServerConstants.RESUME_TIMEOUT_IN_MS);
+        if (ring == null) {
+            return;
         }
+        for (Message missed : ring.takeGap()) {
+            spillToOfflineStore(userName, missed);
+        }
+    }
+
+    /**
+     * Get the limits on how fast clients may send.
+     *
+     * @return the server's rate limiter
+     */
+    static RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Get the messages kept in memory for a user who was recently offline.
+     *
+     * @param userName user who is resuming
+     * @return the user's replay ring, or null if they have none
+     */
+    static ReplayRing replayRingOf(String userName) {
+        return registry.replayRingOf(userName);
     }
 
     /**
@@ -219,17 +364,13 @@ public abstract class Prattle {
      * @param socket
      * @throws IOException
      */
-    @SuppressWarnings("unchecked")
     public static void addActive(SocketChannel socket) throws IOException {
         if (socket != null) {
             ClientRunnable tt = new ClientRunnable(socket);
             // Add the thread to the queue of active threads
             active.add(tt);
             // Have the client executed by our pool of threads.
-            @SuppressWarnings("rawtypes")
-            ScheduledFuture clientFuture = threadPool.scheduleAtFixedRate(tt, CLIENT_CHECK_DELAY,
-                    CLIENT_CHECK_DELAY, TimeUnit.MILLISECONDS);
-            tt.setFuture(clientFuture);
+            dispatcher.register(tt);
         }
     }
 
@@ -240,18 +381,43 @@ public abstract class Prattle {
      * @param userName
      * @throws IOException
      */
-    @SuppressWarnings("unchecked")
     public static void addActive(SocketChannel socket, String userName) throws IOException {
         if (socket != null) {
             ClientRunnable tt = new ClientRunnable(socket, userName);
             // Add the thread to the queue of active threads
             active.add(tt);
-            userMap.put(userName, tt);
-            // Have the client executed by our pool of threads.
-            @SuppressWarnings("rawtypes")
-            ScheduledFuture clientFuture = threadPool.scheduleAtFixedRate(tt, CLIENT_CHECK_DELAY,
-                    CLIENT_CHECK_DELAY, TimeUnit.MILLISECONDS);
-            tt.setFuture(clientFuture);
+            // Have the client executed by our pool of threads, before anything
+            // is queued for it, so the replayed messages get it scheduled.
+            dispatcher.register(tt);
+            sendMissed(tt, registry.online(userName, tt));
+        }
+    }
+
+    /**
+     * Record that a client has logged in, so messages for its user reach it.
+     *
+     * @param client client that has just set its user name
+     */
+    static void userLoggedIn(ClientRunnable client) {
+        if (client.getName() != null && active.contains(client)) {
+            sendMissed(client, registry.online(client.getName(), client));
+        }
+    }
+
+    /**
+     * Queue the messages a user missed while offline for the session that
+     * brought them back.
+     *
+     * @param client the user's new session
+     * @param missed messages kept in the user's replay ring, oldest first
+     */
+    private static void sendMissed(ClientRunnable client, List<Message> missed) {
+        if (!missed.isEmpty()) {
+            logger.log(Level.INFO, "Sending {0} missed messages to {1}",
+                    new Object[] { missed.size(), client.getName() });
+        }
+        for (Message message : missed) {
+            client.enqueueMessage(message);
         }
     }
 
@@ -267,28 +433,22 @@ public abstract class Prattle {
     public static void sendToGroup(Message message) throws IOException, NamingException{
         parentalControl = new ParentalControl();
         String groupName = message.getMsgReceiver();
-        if (!message.isGroupMessage() || !groupMap.containsKey(groupName)) {
+        if (!message.isGroupMessage() || registry.getGroup(groupName) == null) {
             throw new IllegalArgumentException("Any message that sends to a group should be a group Message.");
         }else {
 
-            if (groupAgentMap.containsKey(groupName)) {
-                groupAgentMap.get(groupName).enqueueMessage(addIPToMessage(message));
+            ClientRunnable agent = registry.getGroupAgent(groupName);
+            if (agent != null) {
+                agent.enqueueMessage(addIPToMessage(message));
             }
-            Group group = groupMap.get(groupName);
-
-            List<User> users = group.getUsers();
-            for (User user : users) {
-                if (userMap.containsKey(user.getUsername())) {
-                    if(userMap.get(user.getUsername()) == null){
-                        enqueOffLineMessage(user.getUsername(), message);
-                    }
-                    else {
-                        userMap.get(user.getUsername()).enqueueMessage(message);
-                    }
-                } else {
-                    logger.log(Level.INFO, "User: {0} is not in the system.", user.getUsername());
+            for (String member : registry.onlineMembersOf(groupName)) {
+                for (ClientRunnable session : registry.sessionsOf(member)) {
+                    session.enqueueMessage(message);
                 }
             }
+            for (String member : registry.recentMembersOf(groupName)) {
+                registry.keepForResume(member, message);
+            }
             parentalControlCheck(message.getText()); 
             persistMessage(message);
         }
@@ -303,31 +463,46 @@ public abstract class Prattle {
      * @throws IOException
      */
     public static void sendIndividualMessage(String sender, String receiver, String text) throws IOException, NamingException {
+        sendIndividualMessage(Message.makeIndividualMessage(sender, receiver, text));
+    }
+
+    /**
+     * Send an Individual message as it was received, keeping its identifier. Persist the message after done.
+     *
+     * @param individualMessage
+     * @throws IOException
+     */
+    public static void sendIndividualMessage(Message individualMessage) throws IOException, NamingException {
+        String sender = individualMessage.getName();
+        String receiver = individualMessage.getMsgReceiver();
+        String text = individualMessage.getText();
         parentalControl = new ParentalControl();
-        Message individualMessage = Message.makeIndividualMessage(sender, receiver, text);
-        if (userMap.containsKey(sender) && userMap.containsKey(receiver)) {
-                if(userMap.get(receiver) == null){
-                    enqueOffLineMessage(receiver, individualMessage);
-                }
-                else {
-                    userMap.get(receiver).enqueueMessage(individualMessage);
-                }
-                // Check if the sender/ receiver is in our list of inspecting
-                if (userAgentMap.containsKey(sender)) {
-                    userAgentMap.get(sender).enqueueMessage(addIPToMessage(individualMessage));
-                }
-                if (userAgentMap.containsKey(receiver)) {
-                    userAgentMap.get(receiver).enqueueMessage(addIPToMessage(individualMessage));
-                }
-                
-                parentalControlCheck(text);             
-                persistMessage(individualMessage);    
-            
+        if (!registry.isOnline(sender)) {
+            logger.log(Level.INFO, msg, sender);
+            return;
+        }
+        ClientRunnable[] receivers = registry.sessionsOf(receiver);
+        if (receivers.length != 0) {
+            for (ClientRunnable session : receivers) {
+                session.enqueueMessage(individualMessage);
+            }
         } else {
-            logger.log(Level.INFO, msg, receiver);
+            // Kept for a resume if the receiver has just gone away, or else
+            // queued in the directory until they log in.
+            enqueOffLineMessage(receiver, individualMessage);
+        }
+        // Check if the sender/ receiver is in our list of inspecting
+        ClientRunnable senderAgent = registry.getUserAgent(sender);
+        if (senderAgent != null) {
+            senderAgent.enqueueMessage(addIPToMessage(individualMessage));
+        }
+        ClientRunnable receiverAgent = registry.getUserAgent(receiver);
+        if (receiverAgent != null) {
+            receiverAgent.enqueueMessage(addIPToMessage(individualMessage));
         }
 
-
+        parentalControlCheck(text);
+        persistMessage(individualMessage);
     }
 
 
@@ -346,9 +521,12 @@ public abstract class Prattle {
     public static void enqueOffLineMessage(String userName, Message message) throws NamingException {
         try {
             UserService us = new UserService();
-            if (!us.findUserByUsername(userName).isBacklogBeingLoaded()) {
-                userMap.get(userName).enqueueMessage(message);
-            } else {
+            ClientRunnable[] online = registry.sessionsOf(userName);
+            if (online.length != 0 && !us.findUserByUsername(userName).isBacklogBeingLoaded()) {
+                for (ClientRunnable session : online) {
+                    session.enqueueMessage(message);
+                }
+            } else if (online.length != 0 || !registry.keepForResume(userName, message)) {
                 us.updateUserQueuedMsgs(userName, message);
             }
         } catch (Exception e) {
@@ -359,15 +537,69 @@ public abstract class Prattle {
 
 
     /**
-     * Save the message in LDAP
+     * Keep the retransmit window of a closed connection for a while, so that the
+     * client can resume where it left off by naming the window's token.
+     *
+     * @param userName user whose connection closed
+     * @param window   messages the connection had not acknowledged
+     */
+    static void parkDeliveryWindow(String userName, DeliveryWindow window) {
+        if (userName == null) {
+            return;
+        }
+        String key = parkingKey(userName, window.getToken());
+        parkedWindows.put(key, window);
+        scheduleTimer(() -> parkedWindows.remove(key, window), ServerConstants.RESUME_TIMEOUT_IN_MS);
+    }
+
+    /**
+     * Take over the retransmit window left by one of the user's connections.
+     *
+     * @param userName user who is resuming
+     * @param token    token of the window, from the server's SEQ reply
+     * @return the parked window, or null if there is none
+     */
+    static DeliveryWindow resumeDeliveryWindow(String userName, String token) {
+        return userName == null || token == null ? null : parkedWindows.remove(parkingKey(userName, token));
+    }
+
+    private static String parkingKey(String userName, String token) {
+        return userName + '\n' + token;
+    }
+
+    /**
+     * Keep a message that could not be queued for an online user in their
+     * offline store, without holding up the thread that was sending it.
+     *
+     * @param userName user the message was for
+     * @param message  the message
+     */
+    static void spillToOfflineStore(String userName, Message message) {
+        if (userName == null) {
+            return;
+        }
+        threadPool.execute(() -> {
+            try {
+                new UserService().updateUserQueuedMsgs(userName, message);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Could not spill message for {0}", userName);
+            }
+        });
+    }
+
+    /**
+     * Save the message in the message store; by the background writers unless
+     * prattle.persistSync is set
      *
      * @param message
      */
     public static void persistMessage(Message message) {
+        if (!ServerConstants.PERSIST_SYNC) {
+            messageStore.submit(message, isBlocked);
+            return;
+        }
         try {
-            MessageService service = new MessageService();
-            service.setBlocked(isBlocked);
-            service.saveMessage(message);
+            saveMessage(message, isBlocked);
         } catch (Exception e) {
             logger.warning("Not able to save message.");
             logger.warning(e.getMessage());
@@ -375,56 +607,93 @@ public abstract class Prattle {
 
     }
 
+    /**
+     * Wait until every message handed to {@link #persistMessage(Message)} so far
+     * has been saved, or given up after its retries.
+     *
+     * @param timeoutMs longest time to wait
+     * @return True if nothing is left to save
+     */
+    public static boolean flushMessages(long timeoutMs) {
+        return messageStore.flush(timeoutMs);
+    }
+
+    /**
+     * Save one message right away, in the journal if there is one and in LDAP
+     * otherwise.
+     *
+     * @param message the message
+     * @param flagged whether parental control flagged the message
+     * @return True if the message was saved
+     * @throws NamingException if the directory cannot be reached
+     */
+    private static boolean saveMessage(Message message, boolean flagged) throws NamingException {
+        if (journal != null) {
+            return journal.saveMessage(message, flagged);
+        }
+        MessageService service = new MessageService();
+        service.setBlocked(flagged);
+        return service.saveMessage(message);
+    }
+
     /**
      * Added a new Group and put it in the GroupMap
      *
      * @param group
      */
     protected static void addGrouptoMap(Group group) {
-        groupMap.put(group.getGroupName(), group);
+        registry.addGroup(group);
     }
 
     protected static void addUserAgent(String userName, ClientRunnable agentChannel) {
-        if (!userMap.containsKey(userName)) {
+        if (!registry.isOnline(userName)) {
             logger.info("Specified user is not in the system.");
         } else {
-            userAgentMap.put(userName, agentChannel);
+            registry.setUserAgent(userName, agentChannel);
         }
     }
 
     protected static void addGroupAgent(String groupName, ClientRunnable agentChannel) {
-        if (!groupMap.containsKey(groupName)) {
+        if (registry.getGroup(groupName) == null) {
             logger.info("Specified group is not in the system.");
         } else {
-            groupAgentMap.put(groupName, agentChannel);
+            registry.setGroupAgent(groupName, agentChannel);
         }
     }
 
     protected static Message addIPToMessage(Message message) {
 
         if (message.isIndividualMessage()) {
-            ClientRunnable senderChannel = userMap.get(message.getName());
-            ClientRunnable receiverChannel = userMap.get(message.getMsgReceiver());
-
-            String senderIP = senderChannel.getRemoteAddress();
-            String receiverIP = receiverChannel.getRemoteAddress();
+            String senderIP = remoteAddressOf(message.getName());
+            String receiverIP = remoteAddressOf(message.getMsgReceiver());
 
             String wrapedText = message.getText() + "SenderIP: " + senderIP + " ReceiverIP" + receiverIP;
 
-            return Message.makeIndividualMessage(message.getName(), message.getMsgReceiver(), wrapedText);
+            return Message.makeIndividualMessage(message.getName(), message.getMsgReceiver(), wrapedText,
+                    message.getId());
         } else if (message.isGroupMessage()) {
-            ClientRunnable senderChannel = userMap.get(message.getName());
-
-            String senderIP = senderChannel.getRemoteAddress();
+            String senderIP = remoteAddressOf(message.getName());
             String wrapedText = message.getText() + "SenderIP: " + senderIP;
 
-            return Message.makeIndividualMessage(message.getName(), message.getMsgReceiver(), wrapedText);
+            return Message.makeIndividualMessage(message.getName(), message.getMsgReceiver(), wrapedText,
+                    message.getId());
         } else return null;
     }
 
+    /**
+     * Address of the user's first session, for tagging tapped messages.
+     *
+     * @param userName user to look up
+     * @return the remote address, or a placeholder when the user is offline
+     */
+    private static String remoteAddressOf(String userName) {
+        ClientRunnable[] online = registry.sessionsOf(userName);
+        return online.length == 0 ? "Unknown remote address" : online[0].getRemoteAddress();
+    }
+
     protected static AgentRunnable createNewAgent(SocketChannel socketChannel, String agentName, long wireTapDuration) throws IOException {
         AgentRunnable agentRunnable = new AgentRunnable(socketChannel, agentName);
-        agentRunnable.setValidTime(wireTapDuration);
+        agentRunnable.expireAfter(wireTapDuration);
         return agentRunnable;
     }
 
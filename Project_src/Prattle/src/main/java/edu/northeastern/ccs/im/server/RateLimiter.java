@@ -0,0 +1,176 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Limits how fast each user, and each source address, may send chat messages.
+ * Every message has to get a token from both its user's {@link TokenBucket}
+ * and its address's, so a bot cannot get round the limit by opening more
+ * connections or logging in under more names.
+ * <p>
+ * A user's bucket, and its counters, last as long as the server; there is one
+ * per registered user at most. Address buckets are forgotten once they have
+ * refilled, a sweep at a time as their number grows.
+ */
+class RateLimiter {
+
+    private static final Logger logger = Logger.getLogger(RateLimiter.class.getName());
+
+    /** Fewest address buckets worth sweeping. */
+    private static final int MIN_SWEEP_SIZE = 1024;
+
+    /**
+     * What happens to a message sent faster than its limit.
+     */
+    enum Policy {
+        /** Hold the message, and stop reading from the client, until a token is due. */
+        DELAY,
+        /** Throw the message away and tell the sender. */
+        REJECT;
+
+        /**
+         * Read a policy from its name, ignoring case.
+         *
+         * @param name         name such as "reject"
+         * @param defaultValue policy used when the name is missing or unknown
+         * @return the matching policy
+         */
+        static Policy parse(String name, Policy defaultValue) {
+            if (name != null) {
+                for (Policy policy : values()) {
+                    if (policy.name().equalsIgnoreCase(name.trim())) {
+                        return policy;
+                    }
+                }
+                logger.log(Level.WARNING, "Unknown rate limit policy {0}", name);
+            }
+            return defaultValue;
+        }
+    }
+
+    private final ConcurrentMap<String, TokenBucket> users = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, TokenBucket> addresses = new ConcurrentHashMap<>();
+
+    private final double userRate;
+
+    private final int userBurst;
+
+    private final double addressRate;
+
+    private final int addressBurst;
+
+    private final Policy policy;
+
+    /** Number of address buckets at which the next sweep happens. */
+    private volatile int nextSweep = MIN_SWEEP_SIZE;
+
+    /**
+     * Create a limiter with the configured rates.
+     */
+    RateLimiter() {
+        this(ServerConstants.USER_RATE, ServerConstants.USER_BURST, ServerConstants.ADDRESS_RATE,
+                ServerConstants.ADDRESS_BURST, ServerConstants.RATE_LIMIT_POLICY);
+    }
+
+    /**
+     * Create a limiter. A rate of zero or less turns that limit off.
+     *
+     * @param userRate     messages per second allowed to each user
+     * @param userBurst    messages a user may send at once
+     * @param addressRate  messages per second allowed from each address
+     * @param addressBurst messages an address may send at once
+     * @param policy       what to do with messages over the limit
+     */
+    RateLimiter(double userRate, int userBurst, double addressRate, int addressBurst, Policy policy) {
+        this.userRate = userRate;
+        this.userBurst = userBurst;
+        this.addressRate = addressRate;
+        this.addressBurst = addressBurst;
+        this.policy = policy;
+    }
+
+    /**
+     * Ask to send one message. A message refused by either limit costs no token
+     * from the other, so a sender kept waiting by their address is not charged
+     * again for each retry.
+     *
+     * @param userName user sending it
+     * @param address  address it came from, or null if unknown
+     * @return 0 if the message may go now; otherwise the nanoseconds to wait
+     */
+    long acquire(String userName, String address) {
+        long now = System.nanoTime();
+        TokenBucket user = null;
+        if (userRate > 0 && userName != null) {
+            user = users.get(userName);
+            if (user == null) {
+                user = users.computeIfAbsent(userName, name -> new TokenBucket(userRate, userBurst, now));
+            }
+            long wait = user.tryAcquire(now);
+            if (wait > 0) {
+                return wait;
+            }
+        }
+        if (addressRate > 0 && address != null) {
+            TokenBucket bucket = addresses.get(address);
+            if (bucket == null) {
+                bucket = addresses.computeIfAbsent(address, key -> new TokenBucket(addressRate, addressBurst, now));
+                sweepIfLarge(now);
+            }
+            long wait = bucket.tryAcquire(now);
+            if (wait > 0 && user != null) {
+                user.release();
+            }
+            return wait;
+        }
+        return 0;
+    }
+
+    /**
+     * What happens to messages over the limit.
+     *
+     * @return the policy
+     */
+    Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Number of messages a user has been allowed to send.
+     *
+     * @param userName user of interest
+     * @return messages let through by the user's limit
+     */
+    long getAdmitted(String userName) {
+        TokenBucket bucket = users.get(userName);
+        return bucket == null ? 0 : bucket.getAdmitted();
+    }
+
+    /**
+     * Number of messages a user has sent over their limit.
+     *
+     * @param userName user of interest
+     * @return messages delayed or rejected by the user's limit
+     */
+    long getLimited(String userName) {
+        TokenBucket bucket = users.get(userName);
+        return bucket == null ? 0 : bucket.getLimited();
+    }
+
+    /**
+     * Forget refilled address buckets once there are enough of them to matter.
+     *
+     * @param now current time on the {@link System#nanoTime()} clock
+     */
+    private void sweepIfLarge(long now) {
+        if (addresses.size() < nextSweep) {
+            return;
+        }
+        addresses.values().removeIf(bucket -> bucket.isFull(now));
+        nextSweep = Math.max(MIN_SWEEP_SIZE, addresses.size() * 2);
+    }
+}
@@ -0,0 +1,94 @@
+package edu.northeastern.ccs.im.server;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A fixed set of event loops, each with its own selector and thread. Accepted
+ * clients are handed to the least loaded loop (ties are broken round-robin),
+ * so connection handling spreads over all the cores of the machine.
+ */
+class ReactorGroup implements ClientDispatcher {
+
+    private final ClientReactor[] reactors;
+
+    /** Where the next search for the least loaded reactor starts. */
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * Create and start the event loops.
+     *
+     * @param count   number of event loops; at least one is always created
+     * @param workers pool on which clients are run
+     * @throws IOException if a selector cannot be opened
+     */
+    ReactorGroup(int count, ExecutorService workers) throws IOException {
+        reactors = new ClientReactor[Math.max(1, count)];
+        for (int i = 0; i < reactors.length; i++) {
+            reactors[i] = new ClientReactor("prattle-reactor-" + i, workers);
+        }
+        for (ClientReactor reactor : reactors) {
+            reactor.start();
+        }
+    }
+
+    @Override
+    public void register(ClientRunnable client) {
+        ClientReactor reactor = leastLoaded();
+        client.setReactor(reactor);
+        reactor.register(client);
+    }
+
+    @Override
+    public void deregister(ClientRunnable client) {
+        ClientReactor reactor = client.getReactor();
+        if (reactor != null) {
+            reactor.deregister(client);
+        }
+    }
+
+    @Override
+    public void dispatch(ClientRunnable client) {
+        ClientReactor reactor = client.getReactor();
+        if (reactor != null) {
+            reactor.dispatch(client);
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        for (ClientReactor reactor : reactors) {
+            reactor.shutdown();
+        }
+    }
+
+    /**
+     * Number of event loops in this group.
+     *
+     * @return event loop count
+     */
+    int size() {
+        return reactors.length;
+    }
+
+    /**
+     * Pick the reactor with the fewest registered sockets.
+     *
+     * @return the reactor that should own the next client
+     */
+    private ClientReactor leastLoaded() {
+        int start = Math.floorMod(next.getAndIncrement(), reactors.length);
+        ClientReactor best = reactors[start];
+        int bestLoad = best.getLoad();
+        for (int i = 1; i < reactors.length && bestLoad > 0; i++) {
+            ClientReactor candidate = reactors[(start + i) % reactors.length];
+            int load = candidate.getLoad();
+            if (load < bestLoad) {
+                best = candidate;
+                bestLoad = load;
+            }
+        }
+        return best;
+    }
+}
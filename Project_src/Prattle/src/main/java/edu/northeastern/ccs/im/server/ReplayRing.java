@@ -0,0 +1,135 @@
+package edu.northeastern.ccs.im.server;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+
+import edu.northeastern.ccs.im.Message;
+
+/**
+ * Messages a recently seen user missed while they had no connection, kept in
+ * memory so that a quick reconnect can be caught up without going to the
+ * directory. The ring keeps the last messages not yet replayed; older ones are
+ * pushed out to an overflow, which keeps them in the offline store, and
+ * counted.
+ * <p>
+ * Messages are kept with their wire form already built, and that form is
+ * shared with every other recipient, so a kept message costs a reference.
+ * The ring is replayed when its user logs in. Each ring also has a random
+ * resume token; a client presenting the token of a ring that has since been
+ * forgotten gets the new one back, and knows its missed messages are in the
+ * offline store.
+ */
+class ReplayRing {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final int TOKEN_RADIX = 36;
+
+    private final Message[] ring;
+
+    /** Receives the messages pushed out of a full ring. */
+    private final Consumer<Message> overflow;
+
+    /** Number of messages added since the ring was last emptied. */
+    private long added;
+
+    /** When the user's last session went away, or -1 while they are online. */
+    private long offlineSince = -1;
+
+    private final String token;
+
+    /**
+     * Create an empty ring.
+     *
+     * @param capacity most missed messages kept
+     * @param overflow receives the oldest message each time a full ring takes
+     *                 another
+     */
+    ReplayRing(int capacity, Consumer<Message> overflow) {
+        ring = new Message[Math.max(1, capacity)];
+        this.overflow = overflow;
+        token = Long.toString(RANDOM.nextLong() & Long.MAX_VALUE, TOKEN_RADIX);
+    }
+
+    /**
+     * Keep a message the user missed, handing the oldest one to the overflow if
+     * the ring is full.
+     *
+     * @param message message routed to the user while they were offline
+     */
+    void add(Message message) {
+        // Build the shared wire form now, while the message is in cache anyway.
+        message.encode();
+        Message pushedOut;
+        synchronized (this) {
+            int slot = (int) (added % ring.length);
+            pushedOut = ring[slot];
+            ring[slot] = message;
+            added++;
+        }
+        if (pushedOut != null) {
+            overflow.accept(pushedOut);
+        }
+    }
+
+    /**
+     * Record that the user has gone offline or come back.
+     *
+     * @param online whether the user now has a session
+     * @param now    time of the transition, in epoch milliseconds
+     */
+    synchronized void setOnline(boolean online, long now) {
+        offlineSince = online ? -1 : now;
+    }
+
+    /**
+     * Check whether the user has been offline for at least the given time.
+     *
+     * @param timeoutMs how long the user may stay away
+     * @param now       current time, in epoch milliseconds
+     * @return True if the user went offline no later than timeoutMs ago
+     */
+    synchronized boolean isOfflineFor(long timeoutMs, long now) {
+        return offlineSince >= 0 && now - offlineSince >= timeoutMs;
+    }
+
+    /**
+     * Hand over the messages missed and not yet replayed, oldest first, and empty
+     * the ring.
+     *
+     * @return the missed messages still kept
+     */
+    synchronized List<Message> takeGap() {
+        int kept = (int) Math.min(added, ring.length);
+        List<Message> result = new ArrayList<>(kept);
+        for (long i = added - kept; i < added; i++) {
+            int slot = (int) (i % ring.length);
+            result.add(ring[slot]);
+        }
+        Arrays.fill(ring, null);
+        added = 0;
+        return result;
+    }
+
+    /**
+     * Number of missed messages that no longer fit in the ring and went to the
+     * overflow.
+     *
+     * @return messages pushed out since the ring was last emptied
+     */
+    synchronized long getOverwritten() {
+        return Math.max(0, added - ring.length);
+    }
+
+    /**
+     * Token a client presents to resume from this ring.
+     *
+     * @return the resume token
+     */
+    String getToken() {
+        return token;
+    }
+}
@@ -0,0 +1,411 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+import edu.northeastern.ccs.im.Message;
+import edu.northeastern.ccs.im.dao.Group;
+import edu.northeastern.ccs.im.dao.User;
+
+/**
+ * Thread-safe directory of who is online and where their messages go. Every
+ * lookup made while routing a message is a single read of a concurrent map
+ * returning an immutable snapshot, so routing never takes a lock.
+ * <p>
+ * A user's sessions are kept as an array that is replaced, never modified, and
+ * all changes to it go through {@link ConcurrentMap#compute}, which makes each
+ * online/offline transition atomic. The same transition keeps the secondary
+ * index of online group members up to date, so a group message touches only
+ * the members that can actually receive it.
+ * <p>
+ * Every user seen since the server started keeps a {@link ReplayRing} until
+ * they have been offline for a while. Messages routed to them while they are
+ * offline are kept there, and handed to their first session when they come
+ * back; group members who are offline but still have a ring are indexed
+ * alongside the online ones. Messages that do not fit in a ring go to an
+ * overflow instead.
+ */
+class RoutingRegistry {
+
+    private static final ClientRunnable[] NO_SESSIONS = new ClientRunnable[0];
+
+    /** Sessions of each online user; users with no sessions are absent. */
+    private final ConcurrentMap<String, ClientRunnable[]> sessions = new ConcurrentHashMap<>();
+
+    /** Groups known to the server, by name. */
+    private final ConcurrentMap<String, Group> groups = new ConcurrentHashMap<>();
+
+    /** Names of the groups each user belongs to. */
+    private final ConcurrentMap<String, Set<String>> memberships = new ConcurrentHashMap<>();
+
+    /** Names of the members of each group who are online right now. */
+    private final ConcurrentMap<String, Set<String>> onlineMembers = new ConcurrentHashMap<>();
+
+    /** Names of the members of each group who are offline but still have a replay ring. */
+    private final ConcurrentMap<String, Set<String>> recentMembers = new ConcurrentHashMap<>();
+
+    /** Messages missed by each recently seen user. */
+    private final ConcurrentMap<String, ReplayRing> rings = new ConcurrentHashMap<>();
+
+    /** Agents tapping a user's direct messages. */
+    private final ConcurrentMap<String, ClientRunnable> userAgents = new ConcurrentHashMap<>();
+
+    /** Agents tapping a group's messages. */
+    private final ConcurrentMap<String, ClientRunnable> groupAgents = new ConcurrentHashMap<>();
+
+    /** Most missed messages kept for each user. */
+    private final int ringCapacity;
+
+    /** Receives, with the user's name, messages that do not fit in their ring. */
+    private final BiConsumer<String, Message> overflow;
+
+    /**
+     * Create a registry keeping the configured number of missed messages per user
+     * and moving the rest to the user's offline store.
+     */
+    RoutingRegistry() {
+        this(ServerConstants.REPLAY_RING_SIZE, Prattle::spillToOfflineStore);
+    }
+
+    /**
+     * Create a registry.
+     *
+     * @param ringCapacity most missed messages kept for each user
+     * @param overflow     receives the user's name and each message pushed out
+     *                     of their full ring
+     */
+    RoutingRegistry(int ringCapacity, BiConsumer<String, Message> overflow) {
+        this.ringCapacity = ringCapacity;
+        this.overflow = overflow;
+    }
+
+    /**
+     * Add a session for the user, bringing them online if it is their first.
+     * The messages they missed while offline are handed over to be sent to that
+     * session, so a client that does not resume still gets them.
+     *
+     * @param userName name the session logged in with
+     * @param session  client that should receive the user's messages
+     * @return the messages missed since the user was last online, oldest first;
+     *         empty if they already had a session
+     */
+    List<Message> online(String userName, ClientRunnable session) {
+        List<Message> missed = new ArrayList<>();
+        sessions.compute(userName, (name, current) -> {
+            if (current == null) {
+                ReplayRing ring = rings.computeIfAbsent(name,
+                        user -> new ReplayRing(ringCapacity, message -> overflow.accept(user, message)));
+                ring.setOnline(true, System.currentTimeMillis());
+                missed.addAll(ring.takeGap());
+                markOnline(name, true);
+                return new ClientRunnable[] { session };
+            }
+            for (ClientRunnable existing : current) {
+                if (existing == session) {
+                    return current;
+                }
+            }
+            ClientRunnable[] grown = Arrays.copyOf(current, current.length + 1);
+            grown[current.length] = session;
+            return grown;
+        });
+        return missed;
+    }
+
+    /**
+     * Remove a session, taking the user offline if it was their last.
+     *
+     * @param userName name the session logged in with
+     * @param session  client that has gone away
+     */
+    void offline(String userName, ClientRunnable session) {
+        sessions.computeIfPresent(userName, (name, current) -> {
+            ClientRunnable[] shrunk = new ClientRunnable[current.length];
+            int count = 0;
+            for (ClientRunnable existing : current) {
+                if (existing != session) {
+                    shrunk[count++] = existing;
+                }
+            }
+            if (count == current.length) {
+                return current;
+            }
+            if (count == 0) {
+                ReplayRing ring = rings.get(name);
+                if (ring != null) {
+                    ring.setOnline(false, System.currentTimeMillis());
+                }
+                markOnline(name, false);
+                return null;
+            }
+            return Arrays.copyOf(shrunk, count);
+        });
+    }
+
+    /**
+     * Get the user's sessions as of now.
+     *
+     * @param userName user to look up
+     * @return the user's sessions; empty when they are offline
+     */
+    ClientRunnable[] sessionsOf(String userName) {
+        ClientRunnable[] current = userName == null ? null : sessions.get(userName);
+        return current == null ? NO_SESSIONS : current;
+    }
+
+    /**
+     * Check whether the user has at least one session.
+     *
+     * @param userName user to look up
+     * @return True if the user is online
+     */
+    boolean isOnline(String userName) {
+        return userName != null && sessions.containsKey(userName);
+    }
+
+    /**
+     * Keep a message for a user who is offline but was seen recently, so they can
+     * catch up when they resume.
+     *
+     * @param userName user the message was for
+     * @param message  the message
+     * @return True if the message was kept; false if the user is online or has
+     *         been away too long to have a ring
+     */
+    boolean keepForResume(String userName, Message message) {
+        if (userName == null) {
+            return false;
+        }
+        boolean[] kept = new boolean[1];
+        // Serialised with online(), so a message is either kept before the user
+        // comes back or, once they are back, seen to need a session instead.
+        sessions.compute(userName, (name, current) -> {
+            ReplayRing ring = current == null ? rings.get(name) : null;
+            if (ring != null) {
+                ring.add(message);
+                kept[0] = true;
+            }
+            return current;
+        });
+        return kept[0];
+    }
+
+    /**
+     * Get the replay ring of a user seen recently.
+     *
+     * @param userName user to look up
+     * @return the user's ring, or null if they have not been seen recently
+     */
+    ReplayRing replayRingOf(String userName) {
+        return userName == null ? null : rings.get(userName);
+    }
+
+    /**
+     * Forget a user who has been offline for at least the given time.
+     *
+     * @param userName  user to forget
+     * @param timeoutMs how long the user may stay away before being forgotten
+     * @return the user's ring, holding whatever they never came back for, or null
+     *         if the user was not forgotten
+     */
+    ReplayRing forgetIfOfflineFor(String userName, long timeoutMs) {
+        ReplayRing[] forgotten = new ReplayRing[1];
+        sessions.compute(userName, (name, current) -> {
+            ReplayRing ring = rings.get(name);
+            if (current == null && ring != null && ring.isOfflineFor(timeoutMs, System.currentTimeMillis())) {
+                rings.remove(name);
+                updateIndex(recentMembers, name, false);
+                forgotten[0] = ring;
+            }
+            return current;
+        });
+        return forgotten[0];
+    }
+
+    /**
+     * Register a group, or re-index it after its membership has changed. The new
+     * member indexes are filled before they replace the old ones, so a message
+     * routed meanwhile still sees every member who can receive it.
+     *
+     * @param group group to register
+     */
+    void addGroup(Group group) {
+        String groupName = group.getGroupName();
+        Group previous = groups.put(groupName, group);
+        if (previous != null) {
+            for (User user : previous.getUsers()) {
+                Set<String> mine = memberships.get(user.getUsername());
+                if (mine != null) {
+                    mine.remove(groupName);
+                }
+            }
+        }
+        Set<String> online = ConcurrentHashMap.newKeySet();
+        Set<String> recent = ConcurrentHashMap.newKeySet();
+        for (User user : group.getUsers()) {
+            String userName = user.getUsername();
+            memberships.computeIfAbsent(userName, name -> ConcurrentHashMap.newKeySet()).add(groupName);
+            placeMember(userName, online, recent);
+        }
+        onlineMembers.put(groupName, online);
+        recentMembers.put(groupName, recent);
+        // Transitions made while the indexes were being filled updated the old
+        // ones; those made from now on update these. Look at every member again
+        // to pick up the former.
+        for (User user : group.getUsers()) {
+            placeMember(user.getUsername(), online, recent);
+        }
+    }
+
+    /**
+     * Put a group member in the online or recent index of that group according to
+     * their state right now. Serialised with online() and offline() for the
+     * user, so a transition happening meanwhile is either seen here or made after.
+     *
+     * @param userName member to place
+     * @param online   online members of the group
+     * @param recent   recent members of the group
+     */
+    private void placeMember(String userName, Set<String> online, Set<String> recent) {
+        sessions.compute(userName, (name, current) -> {
+            if (current != null) {
+                online.add(name);
+                recent.remove(name);
+            } else {
+                online.remove(name);
+                if (rings.containsKey(name)) {
+                    recent.add(name);
+                } else {
+                    recent.remove(name);
+                }
+            }
+            return current;
+        });
+    }
+
+    /**
+     * Look up a group by name.
+     *
+     * @param groupName name of the group
+     * @return the group, or null if it is unknown
+     */
+    Group getGroup(String groupName) {
+        return groupName == null ? null : groups.get(groupName);
+    }
+
+    /**
+     * Get the members of a group who are online.
+     *
+     * @param groupName name of the group
+     * @return live view of the online members' names; empty for unknown groups
+     */
+    Set<String> onlineMembersOf(String groupName) {
+        Set<String> online = groupName == null ? null : onlineMembers.get(groupName);
+        return online == null ? Collections.<String>emptySet() : online;
+    }
+
+    /**
+     * Get the members of a group who are offline but were seen recently.
+     *
+     * @param groupName name of the group
+     * @return live view of those members' names; empty for unknown groups
+     */
+    Set<String> recentMembersOf(String groupName) {
+        Set<String> recent = groupName == null ? null : recentMembers.get(groupName);
+        return recent == null ? Collections.<String>emptySet() : recent;
+    }
+
+    /**
+     * Tap a user's direct messages.
+     *
+     * @param userName user to watch
+     * @param agent    agent receiving copies
+     */
+    void setUserAgent(String userName, ClientRunnable agent) {
+        userAgents.put(userName, agent);
+    }
+
+    /**
+     * Get the agent tapping a user's direct messages.
+     *
+     * @param userName user being watched
+     * @return the agent, or null if there is none
+     */
+    ClientRunnable getUserAgent(String userName) {
+        return userName == null ? null : userAgents.get(userName);
+    }
+
+    /**
+     * Tap a group's messages.
+     *
+     * @param groupName group to watch
+     * @param agent     agent receiving copies
+     */
+    void setGroupAgent(String groupName, ClientRunnable agent) {
+        groupAgents.put(groupName, agent);
+    }
+
+    /**
+     * Get the agent tapping a group's messages.
+     *
+     * @param groupName group being watched
+     * @return the agent, or null if there is none
+     */
+    ClientRunnable getGroupAgent(String groupName) {
+        return groupName == null ? null : groupAgents.get(groupName);
+    }
+
+    /**
+     * Drop agents that no longer have a connection.
+     *
+     * @param agent agent that has gone away
+     */
+    void removeAgent(ClientRunnable agent) {
+        userAgents.values().removeIf(existing -> existing == agent);
+        groupAgents.values().removeIf(existing -> existing == agent);
+    }
+
+    /**
+     * Move the user between the online and recent member indexes of every group
+     * they belong to. Only called from inside a transition on the user's sessions
+     * entry.
+     *
+     * @param userName user whose state changed
+     * @param online   whether the user is now online
+     */
+    private void markOnline(String userName, boolean online) {
+        updateIndex(onlineMembers, userName, online);
+        updateIndex(recentMembers, userName, !online && rings.containsKey(userName));
+    }
+
+    /**
+     * Add the user to, or remove them from, one member index of every group they
+     * belong to.
+     *
+     * @param index    online or recent members of each group
+     * @param userName user to update
+     * @param member   whether the user belongs in the index
+     */
+    private void updateIndex(ConcurrentMap<String, Set<String>> index, String userName, boolean member) {
+        Set<String> mine = memberships.get(userName);
+        if (mine == null) {
+            return;
+        }
+        for (String groupName : mine) {
+            Set<String> members = index.get(groupName);
+            if (members != null) {
+                if (member) {
+                    members.add(userName);
+                } else {
+                    members.remove(userName);
+                }
+            }
+        }
+    }
+}
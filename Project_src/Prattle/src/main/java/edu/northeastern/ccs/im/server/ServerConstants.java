@@ -4,6 +4,7 @@ import java.util.HashMap;
 import java.util.List;
 
 import edu.northeastern.ccs.im.Message;
+import edu.northeastern.ccs.im.PrintNetNB;
 
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -28,6 +29,153 @@ public class ServerConstants {
 	/** The port number to listen on. */
 	protected static final int PORT = 2222;
 
+	/** System property used to choose how client connections are serviced. */
+	protected static final String SERVER_MODE_PROPERTY = "prattle.mode";
+
+	/** Server mode that runs every client on a fixed schedule. */
+	protected static final String POLLING_MODE = "polling";
+
+	/**
+	 * Server mode that runs a client only when its socket is readable or it has
+	 * output queued.
+	 */
+	protected static final String REACTOR_MODE = "reactor";
+
+	/**
+	 * Server mode that gives every client its own (virtual, when available)
+	 * thread doing blocking reads and writes.
+	 */
+	protected static final String THREAD_MODE = "threads";
+
+	/** Mode this server runs in; the reactor unless the property says otherwise. */
+	protected static final String SERVER_MODE = System.getProperty(SERVER_MODE_PROPERTY, REACTOR_MODE);
+
+	/** Default number of worker threads for each event loop. */
+	private static final int WORKERS_PER_REACTOR = 4;
+
+	/** Number of event loops used in reactor mode; defaults to one per core. */
+	protected static final int REACTOR_THREADS = Integer.getInteger("prattle.reactors",
+			Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * Number of threads on which clients are run; defaults to four per event loop,
+	 * since a client run may block on the directory.
+	 */
+	protected static final int WORKER_THREADS = Integer.getInteger("prattle.workers",
+			WORKERS_PER_REACTOR * Math.max(1, REACTOR_THREADS));
+
+	/**
+	 * Most inbound messages processed for one client each time it is run. Anything
+	 * left over waits for the client's next turn, behind the other clients.
+	 */
+	protected static final int INBOUND_BUDGET = Integer.getInteger("prattle.inboundBudget", 64);
+
+	/**
+	 * Number of unsent bytes a client may have waiting before it is considered
+	 * stuck and disconnected.
+	 */
+	protected static final long OUTBOUND_HIGH_WATER_MARK = Long.getLong("prattle.outboundHighWater",
+			PrintNetNB.DEFAULT_HIGH_WATER_MARK);
+
+	/** Most messages queued for one client before its message policy applies. */
+	protected static final int OUTBOUND_MAX_MESSAGES = Integer.getInteger("prattle.outboundMaxMessages", 10000);
+
+	/** What happens to a client's messages beyond its message limit. */
+	protected static final OutboundQueue.OverflowPolicy OUTBOUND_MESSAGE_POLICY = OutboundQueue.OverflowPolicy
+			.parse(System.getProperty("prattle.outboundMessagePolicy"), OutboundQueue.OverflowPolicy.DROP_OLDEST);
+
+	/** Most encoded bytes queued for one client before its byte policy applies. */
+	protected static final long OUTBOUND_MAX_BYTES = Long.getLong("prattle.outboundMaxBytes", 8L * 1024 * 1024);
+
+	/** What happens to a client's messages beyond its byte limit. */
+	protected static final OutboundQueue.OverflowPolicy OUTBOUND_BYTE_POLICY = OutboundQueue.OverflowPolicy
+			.parse(System.getProperty("prattle.outboundBytePolicy"), OutboundQueue.OverflowPolicy.DISCONNECT);
+
+	/** Most messages kept for a client until it acknowledges them. */
+	protected static final int RETRANSMIT_WINDOW = Integer.getInteger("prattle.retransmitWindow", 1024);
+
+	/**
+	 * Milliseconds for which the unacknowledged messages of a closed connection,
+	 * and the messages its user misses meanwhile, are kept for them to resume.
+	 */
+	protected static final long RESUME_TIMEOUT_IN_MS = Long.getLong("prattle.resumeTimeout", 300000);
+
+	/** Most messages kept in memory for a user who is offline, to replay when they resume. */
+	protected static final int REPLAY_RING_SIZE = Integer.getInteger("prattle.replayRingSize", 256);
+
+	/** Chat messages per second each user may send; zero or less for no limit. */
+	protected static final double USER_RATE = Double.parseDouble(System.getProperty("prattle.userRate", "20"));
+
+	/** Chat messages a user may send in one burst. */
+	protected static final int USER_BURST = Integer.getInteger("prattle.userBurst", 40);
+
+	/** Chat messages per second allowed from each source address; zero or less for no limit. */
+	protected static final double ADDRESS_RATE = Double.parseDouble(System.getProperty("prattle.addressRate", "100"));
+
+	/** Chat messages one source address may send in one burst. */
+	protected static final int ADDRESS_BURST = Integer.getInteger("prattle.addressBurst", 200);
+
+	/** Whether messages sent too fast are held back or refused. */
+	protected static final RateLimiter.Policy RATE_LIMIT_POLICY = RateLimiter.Policy
+			.parse(System.getProperty("prattle.rateLimitPolicy"), RateLimiter.Policy.DELAY);
+
+	/**
+	 * Whether messages are saved before delivery carries on, instead of by the
+	 * background writers.
+	 */
+	protected static final boolean PERSIST_SYNC = Boolean.getBoolean("prattle.persistSync");
+
+	/** Most messages waiting for the background writers. */
+	protected static final int PERSIST_QUEUE_CAPACITY = Integer.getInteger("prattle.persistQueue", 10000);
+
+	/** Number of background writers saving messages. */
+	protected static final int PERSIST_WRITERS = Integer.getInteger("prattle.persistWriters", 4);
+
+	/** Most messages a writer takes from the queue at once. */
+	protected static final int PERSIST_BATCH_SIZE = Integer.getInteger("prattle.persistBatch", 64);
+
+	/** Times a failed save is tried again before the message is given up. */
+	protected static final int PERSIST_MAX_RETRIES = Integer.getInteger("prattle.persistRetries", 3);
+
+	/** Milliseconds before the first retry of a failed save; doubled for each one after. */
+	protected static final long PERSIST_RETRY_DELAY_IN_MS = Long.getLong("prattle.persistRetryDelay", 200);
+
+	/**
+	 * Milliseconds a sender waits for room when the writers' queue is full; by
+	 * default none, so delivery never waits for the directory.
+	 */
+	protected static final long PERSIST_OFFER_TIMEOUT_IN_MS = Long.getLong("prattle.persistOfferTimeout", 0);
+
+	/** Milliseconds the server waits at exit for queued messages to be saved. */
+	protected static final long PERSIST_SHUTDOWN_WAIT_IN_MS = Long.getLong("prattle.persistShutdownWait", 5000);
+
+	/** System property used to choose where messages are saved. */
+	protected static final String MESSAGE_STORE_PROPERTY = "prattle.messageStore";
+
+	/** Message store that keeps each message as an entry in the directory. */
+	protected static final String LDAP_STORE = "ldap";
+
+	/** Message store that appends messages to a journal on local disk. */
+	protected static final String JOURNAL_STORE = "journal";
+
+	/** Where messages are saved; the directory unless the property says otherwise. */
+	protected static final String MESSAGE_STORE = System.getProperty(MESSAGE_STORE_PROPERTY, LDAP_STORE);
+
+	/** Directory holding the message journal. */
+	protected static final String JOURNAL_DIR = System.getProperty("prattle.journalDir", "journal");
+
+	/** Size in bytes of each journal segment file. */
+	protected static final int JOURNAL_SEGMENT_BYTES = Integer.getInteger("prattle.journalSegmentBytes", 64 * 1024 * 1024);
+
+	/** Whether saving a message to the journal waits until it is on disk. */
+	protected static final boolean JOURNAL_SYNC = Boolean.parseBoolean(System.getProperty("prattle.journalSync", "true"));
+
+	/** Direct messages sent to a client for every turn of its group and broadcast traffic. */
+	protected static final int DIRECT_LANE_WEIGHT = Integer.getInteger("prattle.directLaneWeight", 4);
+
+	/** Group and broadcast messages sent to a client in each of their turns. */
+	protected static final int BULK_LANE_WEIGHT = Integer.getInteger("prattle.bulkLaneWeight", 1);
+
 	/** Name of the private user who responds to interesting queries. */
 	protected static final String NIST_NAME = "NIST";
 
@@ -0,0 +1,187 @@
+package edu.northeastern.ccs.im.server;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Thread-per-connection execution model. Every client gets its own thread that
+ * sits in a blocking read and runs the client whenever a message arrives, and
+ * a second long-lived thread of the same kind that sleeps until another client
+ * queues output for it and then writes it. When the JVM offers virtual threads
+ * they are used, so idle connections cost almost nothing; otherwise ordinary
+ * daemon threads are used.
+ */
+class ThreadPerConnectionDispatcher implements ClientDispatcher {
+
+    private static final Logger logger = Logger.getLogger(ThreadPerConnectionDispatcher.class.getName());
+
+    private final ThreadFactory threadFactory;
+
+    /** Threads and lock of each registered client. */
+    private final Map<ClientRunnable, Connection> connections;
+
+    private volatile boolean running;
+
+    /**
+     * The threads serving one client. The lock keeps the reader and the writer
+     * from running the client at the same time.
+     */
+    private static class Connection {
+        final Lock lock = new ReentrantLock();
+        /** Released once for each time the client is dispatched. */
+        final Semaphore wake = new Semaphore(0);
+        Thread writer;
+    }
+
+    /**
+     * Create a dispatcher using virtual threads where available.
+     */
+    ThreadPerConnectionDispatcher() {
+        this.threadFactory = connectionThreadFactory();
+        this.connections = new ConcurrentHashMap<>();
+        this.running = true;
+    }
+
+    /**
+     * Whether this dispatcher runs its clients on virtual threads.
+     *
+     * @return True if the JVM supplied a virtual thread factory.
+     */
+    boolean usesVirtualThreads() {
+        return !(threadFactory instanceof PlatformThreadFactory);
+    }
+
+    @Override
+    public void register(ClientRunnable client) throws IOException {
+        client.getChannel().configureBlocking(true);
+        Connection connection = new Connection();
+        connection.writer = threadFactory.newThread(() -> writeLoop(client, connection));
+        connections.put(client, connection);
+        connection.writer.start();
+        threadFactory.newThread(() -> readLoop(client, connection)).start();
+    }
+
+    @Override
+    public void deregister(ClientRunnable client) {
+        Connection connection = connections.remove(client);
+        if (connection != null) {
+            connection.writer.interrupt();
+        }
+    }
+
+    @Override
+    public void dispatch(ClientRunnable client) {
+        Connection connection = connections.get(client);
+        if (running && connection != null && client.markScheduled()) {
+            connection.wake.release();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        for (Connection connection : connections.values()) {
+            connection.writer.interrupt();
+        }
+    }
+
+    /**
+     * Body of the reading thread: block until a message arrives, then run the
+     * client, until the connection goes away. The writer goes with it.
+     *
+     * @param client     the client this thread serves
+     * @param connection the client's threads and lock
+     */
+    private void readLoop(ClientRunnable client, Connection connection) {
+        boolean more = true;
+        try {
+            while (more && running && client.getChannel().isOpen()) {
+                more = client.awaitInput();
+                if (!connections.containsKey(client) || !client.getChannel().isOpen()) {
+                    break;
+                }
+                connection.lock.lock();
+                try {
+                    client.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Client run failed", e);
+                } finally {
+                    connection.lock.unlock();
+                }
+            }
+        } finally {
+            deregister(client);
+        }
+    }
+
+    /**
+     * Body of the writing thread: each time the client is dispatched, send
+     * whatever is queued for it without reading from it.
+     *
+     * @param client     the client this thread serves
+     * @param connection the client's threads and lock
+     */
+    private void writeLoop(ClientRunnable client, Connection connection) {
+        while (running && client.getChannel().isOpen()) {
+            try {
+                connection.wake.acquire();
+            } catch (InterruptedException e) {
+                // Deregistered or shut down.
+                return;
+            }
+            connection.lock.lock();
+            try {
+                client.runWithoutInput();
+            } catch (RuntimeException e) {
+                logger.log(Level.WARNING, "Client run failed", e);
+            } finally {
+                connection.lock.unlock();
+                client.clearScheduled();
+            }
+            if (client.getChannel().isOpen() && client.hasPendingWork()) {
+                dispatch(client);
+            }
+        }
+    }
+
+    /**
+     * Look up the virtual thread factory reflectively so the server still builds
+     * and runs on JVMs that predate virtual threads.
+     *
+     * @return a virtual thread factory, or a daemon platform thread factory
+     */
+    private static ThreadFactory connectionThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class)
+                    .invoke(builder, "prattle-connection-", 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.log(Level.INFO, "Virtual threads unavailable, using platform threads");
+            return new PlatformThreadFactory();
+        }
+    }
+
+    /**
+     * Fallback factory producing named daemon threads.
+     */
+    private static class PlatformThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "prattle-connection-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Server-wide hashed timing wheel. Timers are dropped into the bucket for the
+ * tick on which they expire, so scheduling and cancelling are O(1) no matter
+ * how many are pending; delays longer than one turn of the wheel simply wait
+ * out the extra turns in their bucket. A single daemon thread advances the
+ * wheel once per tick and runs the timers that are due.
+ * <p>
+ * Timer actions run on the wheel thread and must be short: they are expected
+ * to hand the real work to a ClientRunnable's dispatcher.
+ */
+class TimingWheel implements Runnable {
+
+    private static final Logger logger = Logger.getLogger(TimingWheel.class.getName());
+
+    /**
+     * A scheduled action that can be cancelled before it fires.
+     */
+    static final class Timeout {
+        private final Runnable task;
+        private final long deadline;
+        private long remainingRounds;
+        private volatile boolean cancelled;
+        private Timeout next;
+        private Timeout prev;
+
+        private Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stop this timer from firing; does nothing if it already has.
+         */
+        void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * @return True if {@link #cancel()} was called.
+         */
+        boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    /**
+     * Doubly linked list of the timers hashed to one slot of the wheel. Only the
+     * wheel thread touches buckets.
+     */
+    private static final class Bucket {
+        private Timeout head;
+
+        void add(Timeout timeout) {
+            timeout.next = head;
+            if (head != null) {
+                head.prev = timeout;
+            }
+            head = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.next = null;
+            timeout.prev = null;
+        }
+    }
+
+    private final long tickInMs;
+
+    private final Bucket[] wheel;
+
+    private final int mask;
+
+    /** Timers scheduled by other threads that the wheel thread has not placed yet. */
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+
+    /** Time the wheel was started; ticks are counted from here. */
+    private final long startTime;
+
+    /** Number of ticks processed so far. */
+    private long tick;
+
+    private final Thread thread;
+
+    private volatile boolean running;
+
+    /**
+     * Create and start a wheel.
+     *
+     * @param tickInMs   length of one tick; timers fire at most this late
+     * @param wheelSize  number of slots, rounded up to a power of two
+     * @param threadName name of the thread driving the wheel
+     */
+    TimingWheel(long tickInMs, int wheelSize, String threadName) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickInMs = tickInMs;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startTime = System.currentTimeMillis();
+        this.running = true;
+        this.thread = new Thread(this, threadName);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Run the task once the delay has passed.
+     *
+     * @param task    action to run on the wheel thread
+     * @param delayMs delay in milliseconds
+     * @return handle that can cancel the timer
+     */
+    Timeout schedule(Runnable task, long delayMs) {
+        Timeout timeout = new Timeout(task, System.currentTimeMillis() + Math.max(0, delayMs));
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the wheel thread; pending timers never fire.
+     */
+    void stop() {
+        running = false;
+        thread.interrupt();
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            long nextTick = startTime + (tick + 1) * tickInMs;
+            long sleep = nextTick - System.currentTimeMillis();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.MILLISECONDS.sleep(sleep);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            placeIncoming();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    /**
+     * Move newly scheduled timers into their buckets.
+     */
+    private void placeIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            long ticks = Math.max(tick, (timeout.deadline - startTime) / tickInMs);
+            timeout.remainingRounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    /**
+     * Fire every timer in the bucket whose last round has come.
+     *
+     * @param bucket the bucket for the current tick
+     */
+    private void expire(Bucket bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                bucket.remove(timeout);
+            } else if (timeout.remainingRounds <= 0) {
+                bucket.remove(timeout);
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Timer task failed", e);
+                }
+            } else {
+                timeout.remainingRounds--;
+            }
+            timeout = next;
+        }
+    }
+}
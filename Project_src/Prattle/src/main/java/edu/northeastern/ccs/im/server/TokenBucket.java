@@ -0,0 +1,99 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket allowing a steady rate of messages with bursts up to a fixed
+ * size. Instead of a token count refilled by a clock, the bucket keeps the time
+ * at which it will next be full, so a check is one read and one compare-and-set
+ * and never locks or allocates.
+ */
+class TokenBucket {
+
+    /** Nanoseconds it takes to earn one token. */
+    private final long interval;
+
+    /** Nanoseconds worth of tokens the bucket holds when full. */
+    private final long capacity;
+
+    /** Time, on the {@link System#nanoTime()} clock, at which the bucket is full. */
+    private final AtomicLong fullAt;
+
+    private final AtomicLong admitted = new AtomicLong();
+
+    private final AtomicLong limited = new AtomicLong();
+
+    /**
+     * Create a full bucket.
+     *
+     * @param perSecond tokens earned per second
+     * @param burst     most tokens held
+     * @param now       current time on the {@link System#nanoTime()} clock
+     */
+    TokenBucket(double perSecond, int burst, long now) {
+        interval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / perSecond));
+        capacity = interval * Math.max(1, burst);
+        fullAt = new AtomicLong(now);
+    }
+
+    /**
+     * Take a token if there is one.
+     *
+     * @param now current time on the {@link System#nanoTime()} clock
+     * @return 0 if a token was taken; otherwise the nanoseconds until one is due
+     */
+    long tryAcquire(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + interval;
+            long wait = next - now - capacity;
+            if (wait > 0) {
+                limited.incrementAndGet();
+                return wait;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                admitted.incrementAndGet();
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Give back a token taken by {@link #tryAcquire(long)} for a message that was
+     * not sent after all, so it does not count against the limit.
+     */
+    void release() {
+        fullAt.addAndGet(-interval);
+        admitted.decrementAndGet();
+    }
+
+    /**
+     * Check whether the bucket has refilled completely, so forgetting it changes
+     * nothing.
+     *
+     * @param now current time on the {@link System#nanoTime()} clock
+     * @return True if the bucket is full
+     */
+    boolean isFull(long now) {
+        return fullAt.get() - now <= 0;
+    }
+
+    /**
+     * Number of tokens taken.
+     *
+     * @return messages let through
+     */
+    long getAdmitted() {
+        return admitted.get();
+    }
+
+    /**
+     * Number of times a token was asked for when there was none.
+     *
+     * @return messages delayed or rejected
+     */
+    long getLimited() {
+        return limited.get();
+    }
+}
@@ -0,0 +1,285 @@
+package edu.northeastern.ccs.im.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.northeastern.ccs.im.Message;
+
+/**
+ * Saves messages to the directory in the background, so that delivering a
+ * message never waits for the directory server.
+ * <p>
+ * Messages go into a bounded queue drained by a few writer threads. Each
+ * writer takes a batch at a time and saves it in order; the writers run side
+ * by side. A save that fails is retried after a growing pause and, if it keeps
+ * failing, counted and given up. When the queue is full a sender may wait a
+ * set time for room, which slows down whoever is sending faster than the
+ * directory can keep up, and the message is dropped and counted if no room
+ * appears.
+ * <p>
+ * A message is durable once a writer has saved it; {@link #flush(long)} waits
+ * for everything accepted so far to be saved or given up.
+ */
+class WriteBehindStore {
+
+    private static final Logger logger = Logger.getLogger(WriteBehindStore.class.getName());
+
+    /**
+     * Where messages are saved.
+     */
+    interface Sink {
+        /**
+         * Save one message.
+         *
+         * @param message message to save
+         * @param flagged whether the message was flagged by parental control
+         * @return True if the message was saved
+         * @throws Exception if the message could not be saved
+         */
+        boolean save(Message message, boolean flagged) throws Exception;
+    }
+
+    /**
+     * A message waiting to be saved.
+     */
+    private static final class Pending {
+        private final Message message;
+        private final boolean flagged;
+
+        private Pending(Message message, boolean flagged) {
+            this.message = message;
+            this.flagged = flagged;
+        }
+    }
+
+    private final Sink sink;
+
+    private final BlockingQueue<Pending> queue;
+
+    private final int batchSize;
+
+    private final int maxRetries;
+
+    private final long retryDelayMs;
+
+    private final long offerTimeoutMs;
+
+    /** Messages accepted and not yet saved or given up. */
+    private final AtomicInteger outstanding = new AtomicInteger();
+
+    private final AtomicLong written = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong retried = new AtomicLong();
+
+    /** Signalled when the last outstanding message is finished. */
+    private final Object drained = new Object();
+
+    private volatile boolean running = true;
+
+    /**
+     * Create a store and start its writers.
+     *
+     * @param sink           where messages are saved
+     * @param capacity       most messages waiting to be saved
+     * @param writers        number of writer threads
+     * @param batchSize      most messages a writer takes at once
+     * @param maxRetries     times a failed save is tried again
+     * @param retryDelayMs   pause before the first retry; doubled for each one after
+     * @param offerTimeoutMs how long a sender waits for room in a full queue
+     */
+    WriteBehindStore(Sink sink, int capacity, int writers, int batchSize, int maxRetries, long retryDelayMs,
+                     long offerTimeoutMs) {
+        this.sink = sink;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRetries = Math.max(0, maxRetries);
+        this.retryDelayMs = retryDelayMs;
+        this.offerTimeoutMs = offerTimeoutMs;
+        for (int i = 0; i < Math.max(1, writers); i++) {
+            Thread writer = new Thread(this::drain, "prattle-writer-" + i);
+            writer.setDaemon(true);
+            writer.start();
+        }
+    }
+
+    /**
+     * Queue a message to be saved.
+     *
+     * @param message message to save
+     * @param flagged whether the message was flagged by parental control
+     * @return True if the message was accepted; false if it was dropped
+     */
+    boolean submit(Message message, boolean flagged) {
+        outstanding.incrementAndGet();
+        boolean accepted;
+        try {
+            accepted = running && queue.offer(new Pending(message, flagged), offerTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+        if (!accepted) {
+            dropped.incrementAndGet();
+            logger.log(Level.WARNING, "Message store is full or stopped -- not saving a message from {0}", message.getName());
+            finished();
+        }
+        return accepted;
+    }
+
+    /**
+     * Wait until every message accepted so far has been saved or given up.
+     *
+     * @param timeoutMs longest time to wait
+     * @return True if nothing is left to save
+     */
+    boolean flush(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (drained) {
+            long left;
+            while (outstanding.get() > 0 && (left = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    drained.wait(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return outstanding.get() == 0;
+        }
+    }
+
+    /**
+     * Stop accepting messages, and let the writers stop once the queue is empty.
+     *
+     * @param timeoutMs longest time to wait for what is queued to be saved
+     * @return True if everything queued was saved or given up
+     */
+    boolean shutdown(long timeoutMs) {
+        running = false;
+        return flush(timeoutMs);
+    }
+
+    /**
+     * Number of messages waiting in the queue.
+     *
+     * @return queued messages
+     */
+    int getQueued() {
+        return queue.size();
+    }
+
+    /**
+     * Number of messages saved.
+     *
+     * @return messages saved
+     */
+    long getWritten() {
+        return written.get();
+    }
+
+    /**
+     * Number of messages given up after their last retry.
+     *
+     * @return messages that could not be saved
+     */
+    long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Number of messages dropped because the queue stayed full.
+     *
+     * @return messages dropped
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Number of retries made.
+     *
+     * @return retries
+     */
+    long getRetried() {
+        return retried.get();
+    }
+
+    /**
+     * Writer loop: take a batch, save it, repeat.
+     */
+    private void drain() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while ((running || !queue.isEmpty()) && !Thread.currentThread().isInterrupted()) {
+            Pending first;
+            try {
+                first = queue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                for (Pending pending : batch) {
+                    save(pending);
+                }
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Save one message, retrying with a growing pause. A writer interrupted while
+     * pausing gives the message up.
+     *
+     * @param pending the message
+     */
+    private void save(Pending pending) {
+        try {
+            long delay = retryDelayMs;
+            for (int attempt = 0; attempt <= maxRetries; attempt++) {
+                if (attempt > 0) {
+                    retried.incrementAndGet();
+                    try {
+                        TimeUnit.MILLISECONDS.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    delay *= 2;
+                }
+                try {
+                    if (sink.save(pending.message, pending.flagged)) {
+                        written.incrementAndGet();
+                        return;
+                    }
+                } catch (Exception e) {
+                    logger.log(Level.FINE, "Save failed", e);
+                }
+            }
+            failed.incrementAndGet();
+            logger.log(Level.WARNING, "Not able to save message from {0}", pending.message.getName());
+        } finally {
+            finished();
+        }
+    }
+
+    private void finished() {
+        if (outstanding.decrementAndGet() == 0) {
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+        }
+    }
+}
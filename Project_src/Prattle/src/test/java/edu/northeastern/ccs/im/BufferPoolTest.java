@@ -0,0 +1,61 @@
+package edu.northeastern.ccs.im;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the shared direct buffer pool
+ */
+public class BufferPoolTest {
+
+    /**
+     * A returned buffer is handed out again and counted as a hit.
+     */
+    @Test
+    public void reuseReleasedBuffer() {
+        BufferPool pool = new BufferPool(4);
+        ByteBuffer first = pool.acquire(3000);
+        assertTrue(first.isDirect());
+        assertEquals(4096, first.capacity());
+        assertEquals(4096, pool.getOutstandingBytes());
+        first.put((byte) 1);
+        pool.release(first);
+        assertEquals(0, pool.getOutstandingBytes());
+
+        ByteBuffer second = pool.acquire(4096);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    /**
+     * Requests larger than every size class get an unpooled buffer.
+     */
+    @Test
+    public void oversizedRequestIsNotPooled() {
+        BufferPool pool = new BufferPool(4);
+        ByteBuffer big = pool.acquire(1024 * 1024);
+        assertFalse(big.isDirect());
+        pool.release(big);
+        assertNotSame(big, pool.acquire(1024 * 1024));
+        assertEquals(2, pool.getMisses());
+    }
+
+    /**
+     * No more than the configured number of idle buffers are kept.
+     */
+    @Test
+    public void idleBuffersAreCapped() {
+        BufferPool pool = new BufferPool(1);
+        ByteBuffer a = pool.acquire(1024);
+        ByteBuffer b = pool.acquire(1024);
+        pool.release(a);
+        pool.release(b);
+        assertSame(a, pool.acquire(1024));
+        assertNotSame(b, pool.acquire(1024));
+    }
+}
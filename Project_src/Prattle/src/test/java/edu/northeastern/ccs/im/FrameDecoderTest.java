@@ -0,0 +1,125 @@
+package edu.northeastern.ccs.im;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+import java.util.Queue;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the incremental frame decoder
+ */
+public class FrameDecoderTest {
+
+    private FrameDecoder decoder;
+    private Queue<Message> messages;
+
+    @BeforeEach
+    public void setUp() {
+        decoder = new FrameDecoder();
+        messages = new LinkedList<>();
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * A whole frame in one read gives one message.
+     */
+    @Test
+    public void decodeSingleFrame() {
+        Message sent = Message.makeBroadcastMessage("bob", "hello world");
+        assertEquals(1, decoder.decode(bytes(sent.toString()), messages));
+        Message received = messages.remove();
+        assertEquals("bob", received.getName());
+        assertEquals("hello world", received.getText());
+        assertTrue(received.isBroadcastMessage());
+        assertFalse(decoder.hasPartialFrame());
+    }
+
+    /**
+     * Several frames back to back in one read are all decoded.
+     */
+    @Test
+    public void decodeSeveralFrames() {
+        String wire = Message.makeSimpleLoginMessage("bob").toString()
+                + Message.makeBroadcastMessage("bob", "one").toString()
+                + Message.makeQuitMessage("bob").toString();
+        assertEquals(3, decoder.decode(bytes(wire), messages));
+        assertTrue(messages.remove().isInitialization());
+        assertEquals("one", messages.remove().getText());
+        assertTrue(messages.remove().terminate());
+    }
+
+    /**
+     * A frame arriving one byte per read is decoded once its last byte arrives.
+     */
+    @Test
+    public void decodeFrameSplitAcrossReads() {
+        String wire = Message.makeBroadcastMessage("alice", "split me").toString();
+        for (int i = 0; i < wire.length() - 1; i++) {
+            assertEquals(0, decoder.decode(bytes(wire.substring(i, i + 1)), messages));
+            assertTrue(decoder.hasPartialFrame());
+        }
+        assertEquals(1, decoder.decode(bytes(wire.substring(wire.length() - 1)), messages));
+        assertEquals("split me", messages.remove().getText());
+    }
+
+    /**
+     * Direct messages carry their receiver between the sender and the text.
+     */
+    @Test
+    public void decodeIndividualMessage() {
+        Message sent = Message.makeIndividualMessage("bob", "alice", "hi there");
+        assertEquals(1, decoder.decode(bytes(sent.toString()), messages));
+        Message received = messages.remove();
+        assertTrue(received.isIndividualMessage());
+        assertEquals("bob", received.getName());
+        assertEquals("alice", received.getMsgReceiver());
+        assertEquals("hi there", received.getText());
+    }
+
+    /**
+     * Group messages split across reads keep their receiver.
+     */
+    @Test
+    public void decodeGroupMessageSplitAcrossReads() {
+        String wire = Message.makeGroupMessage("bob", "team", "standup").toString()
+                + Message.makeBroadcastMessage("bob", "after").toString();
+        int half = wire.length() / 2;
+        assertEquals(0, decoder.decode(bytes(wire.substring(0, 12)), messages));
+        decoder.decode(bytes(wire.substring(12, half)), messages);
+        decoder.decode(bytes(wire.substring(half)), messages);
+        Message group = messages.remove();
+        assertTrue(group.isGroupMessage());
+        assertEquals("team", group.getMsgReceiver());
+        assertEquals("standup", group.getText());
+        assertEquals("after", messages.remove().getText());
+    }
+
+    /**
+     * Line breaks between frames are skipped.
+     */
+    @Test
+    public void skipWhitespaceBetweenFrames() {
+        String wire = "BCT 3 bob 2 hi\r\nBCT 3 bob 3 hey\n";
+        assertEquals(2, decoder.decode(bytes(wire), messages));
+        assertEquals("hi", messages.remove().getText());
+        assertEquals("hey", messages.remove().getText());
+    }
+
+    /**
+     * Frames with an unknown handle are dropped without disturbing the next frame.
+     */
+    @Test
+    public void dropUnknownHandle() {
+        String wire = "XYZ 3 bob 2 hiBCT 3 bob 3 hey";
+        assertEquals(1, decoder.decode(bytes(wire), messages));
+        assertEquals("hey", messages.remove().getText());
+    }
+}
@@ -0,0 +1,108 @@
+package edu.northeastern.ccs.im;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the message identifier generator
+ */
+public class MessageIdGeneratorTest {
+
+    /**
+     * Identifiers from one generator only increase.
+     */
+    @Test
+    public void identifiersIncrease() {
+        MessageIdGenerator generator = new MessageIdGenerator(5);
+        long last = generator.next();
+        for (int i = 0; i < 100000; i++) {
+            long id = generator.next();
+            assertTrue(id > last);
+            last = id;
+        }
+    }
+
+    /**
+     * Threads sharing a generator never get the same identifier.
+     */
+    @Test
+    public void identifiersAreUniqueAcrossThreads() throws InterruptedException {
+        MessageIdGenerator generator = new MessageIdGenerator(1);
+        int perThread = 20000;
+        long[][] made = new long[4][perThread];
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < made.length; t++) {
+            long[] ids = made[t];
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = generator.next();
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Set<Long> seen = new HashSet<>();
+        for (long[] ids : made) {
+            for (long id : ids) {
+                assertTrue(seen.add(id));
+            }
+        }
+        assertEquals(made.length * perThread, seen.size());
+    }
+
+    /**
+     * An identifier tells which node made it and roughly when.
+     */
+    @Test
+    public void identifiersCarryNodeAndTime() {
+        long before = System.currentTimeMillis();
+        long id = new MessageIdGenerator(MessageIdGenerator.MAX_NODE).next();
+        long after = System.currentTimeMillis();
+        assertTrue(id > 0);
+        assertEquals(MessageIdGenerator.MAX_NODE, MessageIdGenerator.nodeOf(id));
+        assertTrue(MessageIdGenerator.timeOf(id) >= before);
+        assertTrue(MessageIdGenerator.timeOf(id) <= after);
+        assertNotEquals(MessageIdGenerator.nodeOf(id), MessageIdGenerator.nodeOf(new MessageIdGenerator(3).next()));
+    }
+
+    /**
+     * Node ids outside the ten bits are refused.
+     */
+    @Test
+    public void nodeMustFit() {
+        for (int node : new int[] { -1, MessageIdGenerator.MAX_NODE + 1 }) {
+            try {
+                new MessageIdGenerator(node);
+                fail();
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage().contains(Integer.toString(node)));
+            }
+        }
+    }
+
+    /**
+     * Every message is made with its own identifier, which one read back from
+     * storage is given again.
+     */
+    @Test
+    public void messagesGetIdentifiers() {
+        Message first = Message.makeIndividualMessage("alice", "bob", "one");
+        Message second = Message.makeIndividualMessage("alice", "bob", "one");
+        assertTrue(second.getId() > first.getId());
+        Message stored = Message.makeMessage("INDV", "alice", "bob", "one", first.getId());
+        assertEquals(first.getId(), stored.getId());
+        assertEquals("bob", stored.getMsgReceiver());
+        assertTrue(Message.makeMessage("BCT", "alice", "bob", "one", first.getId()).isBroadcastMessage());
+        assertNull(Message.makeMessage("XYZ", "alice", "bob", "one", first.getId()));
+        assertEquals(second.getId(), Message.makeIndividualMessage("alice", "bob", "two", second.getId()).getId());
+    }
+}
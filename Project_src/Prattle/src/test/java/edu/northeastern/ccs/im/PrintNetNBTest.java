@@ -19,8 +19,10 @@ import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.spi.SelectorProvider;
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -110,7 +112,188 @@ class PrintNetNBTest {
         pnb = new PrintNetNB(snb.getSocket());
         assertEquals(Boolean.FALSE, pnb.print(msg));
     }
-    
-   
-     
-}
\ No newline at end of file
+
+    /**
+     * Output a full socket will not take is kept, and goes out in order once the
+     * socket reports it is writable again.
+     */
+    @Test
+    public void partialWriteResumesOnWritable() throws IOException {
+        SocketChannel[] pair = socketPair();
+        PrintNetNB pnb = new PrintNetNB(pair[0], 64L * 1024 * 1024);
+        String padding = padding(4000);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 10000 && !pnb.hasPendingOutput(); i++) {
+            Message msg = Message.makeBroadcastMessage("Pat", i + padding);
+            expected.append(msg.toString());
+            assertTrue(pnb.print(msg));
+        }
+        assertTrue(pnb.hasPendingOutput());
+
+        StringBuilder received = new StringBuilder();
+        Selector writable = Selector.open();
+        pair[0].register(writable, SelectionKey.OP_WRITE);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pnb.hasPendingOutput() && System.currentTimeMillis() < deadline) {
+            drain(pair[1], received);
+            if (writable.select(50) > 0) {
+                writable.selectedKeys().clear();
+                pnb.flush();
+            }
+        }
+        assertFalse(pnb.hasPendingOutput());
+        while (received.length() < expected.length() && System.currentTimeMillis() < deadline) {
+            drain(pair[1], received);
+        }
+        assertEquals(expected.toString(), received.toString());
+        assertFalse(pnb.isFailed());
+        writable.close();
+        pair[0].close();
+        pair[1].close();
+    }
+
+    /**
+     * Bytes merely queued do not count against the high-water mark; a reader is
+     * given up on only once its full socket leaves more than the mark unwritten,
+     * and nothing more is accepted for it.
+     */
+    @Test
+    public void highWaterMarkFailsStuckReader() throws IOException {
+        SocketChannel[] pair = socketPair();
+        Message msg = Message.makeBroadcastMessage("Pat", padding(4000));
+        PrintNetNB pnb = new PrintNetNB(pair[0], 16L * 1024);
+
+        // Well past the mark, but short of the size at which enqueue flushes.
+        for (int i = 0; i < 15; i++) {
+            assertTrue(pnb.enqueue(msg));
+        }
+        assertFalse(pnb.isFailed());
+        assertFalse(pnb.flush());
+        assertTrue(pnb.isBlocked());
+        assertTrue(pnb.isFailed());
+        assertFalse(pnb.enqueue(msg));
+        assertFalse(pnb.print(msg));
+        pair[0].close();
+        pair[1].close();
+    }
+
+    /**
+     * A batch far bigger than the high-water mark, queued for a reader that
+     * keeps up, goes out whole: the queue is flushed as it grows, and the writer
+     * stops queueing only while the socket is full.
+     */
+    @Test
+    public void largeBatchToLiveReaderIsNotDropped() throws IOException, InterruptedException {
+        SocketChannel[] pair = socketPair();
+        PrintNetNB pnb = new PrintNetNB(pair[0]);
+        Message msg = Message.makeBroadcastMessage("Pat", padding(60000));
+        int count = 40;
+        long total = (long) count * msg.encode().remaining();
+        assertTrue(total > PrintNetNB.DEFAULT_HIGH_WATER_MARK);
+
+        AtomicLong received = new AtomicLong();
+        Thread reader = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocate(65536);
+            try {
+                while (received.get() < total) {
+                    int read = pair[1].read(buffer);
+                    received.addAndGet(Math.max(0, read));
+                    buffer.clear();
+                }
+            } catch (IOException e) {
+                // The test fails on the count below.
+            }
+        });
+        reader.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        for (int i = 0; i < count; i++) {
+            while (pnb.isBlocked() && !pnb.flush() && System.currentTimeMillis() < deadline) {
+                Thread.yield();
+            }
+            assertTrue(pnb.enqueue(msg));
+        }
+        while (!pnb.flush() && System.currentTimeMillis() < deadline) {
+            Thread.yield();
+        }
+        reader.join(5000);
+        assertFalse(pnb.isFailed());
+        assertEquals(total, received.get());
+        pair[0].close();
+        pair[1].close();
+    }
+
+    /**
+     * Enqueued messages are not written until a flush, which hands many of them
+     * to the socket at once, across more than one gathering write when needed.
+     */
+    @Test
+    public void flushGathersQueuedMessages() throws IOException, InterruptedException {
+        SocketChannel[] pair = socketPair();
+        PrintNetNB pnb = new PrintNetNB(pair[0]);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            Message msg = Message.makeBroadcastMessage("Pat", "message " + i);
+            expected.append(msg.toString());
+            assertTrue(pnb.enqueue(msg));
+        }
+        StringBuilder received = new StringBuilder();
+        Thread.sleep(50);
+        drain(pair[1], received);
+        assertEquals(0, received.length());
+        assertTrue(pnb.hasPendingOutput());
+
+        pnb.flush();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (received.length() < expected.length() && System.currentTimeMillis() < deadline) {
+            drain(pair[1], received);
+            pnb.flush();
+        }
+        assertFalse(pnb.hasPendingOutput());
+        assertEquals(expected.toString(), received.toString());
+        pair[0].close();
+        pair[1].close();
+    }
+
+    /**
+     * Connect a pair of channels over the loopback interface, with small socket
+     * buffers so that the writing side fills up quickly.
+     *
+     * @return the writing side first, then the reading side; both non-blocking
+     */
+    private static SocketChannel[] socketPair() throws IOException {
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+            SocketChannel reader = SocketChannel.open();
+            reader.socket().setReceiveBufferSize(4096);
+            reader.connect(server.socket().getLocalSocketAddress());
+            SocketChannel writer = server.accept();
+            writer.socket().setSendBufferSize(4096);
+            writer.configureBlocking(false);
+            reader.configureBlocking(false);
+            return new SocketChannel[] { writer, reader };
+        }
+    }
+
+    /**
+     * Text of the given length.
+     */
+    private static String padding(int length) {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            padding.append('x');
+        }
+        return padding.toString();
+    }
+
+    /**
+     * Read whatever has arrived without waiting.
+     */
+    private static void drain(SocketChannel reader, StringBuilder received) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (reader.read(buffer) > 0) {
+            buffer.flip();
+            received.append(StandardCharsets.UTF_8.decode(buffer));
+            buffer.clear();
+        }
+    }
+}
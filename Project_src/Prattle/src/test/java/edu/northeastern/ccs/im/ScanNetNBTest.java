@@ -137,7 +137,8 @@ public class ScanNetNBTest {
     @Test
     public void close() throws IOException {
         snnb.close();
-        assertEquals(Boolean.FALSE, snnb.getSelector().isOpen());
+        assertEquals(Boolean.TRUE, snnb.isClosed());
+        assertEquals(Boolean.FALSE, snnb.hasNextMessage());
     }
 
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package edu.northeastern.ccs.im;
 
+import java.nio.ByteBuffer;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 import org.junit.jupiter.api.Test;
@@ -420,5 +422,22 @@ public class TestMessage {
     public void testForMakeGroupMsg() {
         assertEquals(null,Message.makeMessage("GR","Farha", "MSD", "Hi"));
     }
-  
+
+    /**
+     * Test that the encoded form matches the String form and that every
+     * recipient gets an independent read-only view of the same bytes
+     */
+    @Test
+    public void testForEncodeShared() {
+        Message message = Message.makeBroadcastMessage("Farha", "Hi all");
+        ByteBuffer first = message.encode();
+        ByteBuffer second = message.encode();
+        assertTrue(first.isReadOnly());
+        assertEquals(message.toString().length(), first.remaining());
+        first.get(new byte[first.remaining()]);
+        assertEquals(0, first.remaining());
+        assertEquals(message.toString().length(), second.remaining());
+        assertSame(message.toString(), message.toString());
+    }
+
 }
@@ -0,0 +1,200 @@
+package edu.northeastern.ccs.im.dao;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.naming.CommunicationException;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the LDAP connection pool against fake connections
+ */
+public class DirContextPoolTest {
+
+    private final AtomicInteger closed = new AtomicInteger();
+    private final CountDownLatch release = new CountDownLatch(1);
+    private final CountDownLatch blocking = new CountDownLatch(1);
+
+    /**
+     * A fake connection: "block" waits for the test, "lost" fails as if the
+     * server went away, and searches return two results.
+     */
+    private DirContext connect() {
+        return (DirContext) Proxy.newProxyInstance(DirContext.class.getClassLoader(),
+                new Class<?>[] { DirContext.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "close":
+                        closed.incrementAndGet();
+                        return null;
+                    case "getAttributes":
+                        if ("block".equals(args[0])) {
+                            blocking.countDown();
+                            release.await();
+                        }
+                        return new BasicAttributes();
+                    case "lookup":
+                        throw new CommunicationException("lost");
+                    case "search":
+                        return enumeration("one", "two");
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static NamingEnumeration<Object> enumeration(Object... items) {
+        Iterator<Object> it = Arrays.asList(items).iterator();
+        return (NamingEnumeration<Object>) Proxy.newProxyInstance(NamingEnumeration.class.getClassLoader(),
+                new Class<?>[] { NamingEnumeration.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "hasMore":
+                        return it.hasNext();
+                    case "next":
+                        return it.next();
+                    default:
+                        return null;
+                    }
+                });
+    }
+
+    private DirContextPool pool(int maxSize, long borrowTimeoutMs) {
+        return new DirContextPool(this::connect, 1, maxSize, 0, borrowTimeoutMs, 60000);
+    }
+
+    /**
+     * Calls one after another share a single connection.
+     */
+    @Test
+    public void reusesConnections() throws NamingException {
+        DirContextPool pool = pool(4, 1000);
+        DirContext context = pool.getContext();
+        context.getAttributes("a");
+        context.getAttributes("b");
+        context.close();
+        context.getAttributes("c");
+        assertEquals(1, pool.getCreated());
+        assertEquals(3, pool.getBorrowed());
+        assertEquals(1, pool.getIdle());
+        assertEquals(0, pool.getActive());
+        assertEquals(0, closed.get());
+    }
+
+    /**
+     * Search results are read before the connection goes back.
+     */
+    @Test
+    public void readsSearchResults() throws NamingException {
+        DirContextPool pool = pool(1, 1000);
+        NamingEnumeration<?> results = pool.getContext().search("ou=users", "(uid=*)", null);
+        assertEquals(0, pool.getActive());
+        assertEquals("one", results.next());
+        assertEquals("two", results.next());
+        assertFalse(results.hasMore());
+    }
+
+    /**
+     * Work lent a context keeps the same connection for all its calls.
+     */
+    @Test
+    public void lendsOneConnectionForWork() throws NamingException {
+        DirContextPool pool = pool(2, 1000);
+        DirContext first = pool.withContext(context -> {
+            context.getAttributes("a");
+            assertEquals(1, pool.getActive());
+            return context;
+        });
+        DirContext second = pool.withContext(context -> context);
+        assertSame(first, second);
+        assertEquals(0, pool.getActive());
+        assertEquals(1, pool.getCreated());
+        try {
+            pool.withContext(context -> context.lookup("x"));
+            fail();
+        } catch (CommunicationException e) {
+            assertEquals(1, pool.getDestroyed());
+        }
+    }
+
+    /**
+     * A connection that fails is closed, not lent again.
+     */
+    @Test
+    public void dropsBrokenConnections() {
+        DirContextPool pool = pool(2, 1000);
+        try {
+            pool.getContext().lookup("x");
+            fail();
+        } catch (NamingException e) {
+            assertTrue(e instanceof CommunicationException);
+        }
+        assertEquals(1, pool.getDestroyed());
+        assertEquals(0, pool.getOpen());
+        assertEquals(1, closed.get());
+    }
+
+    /**
+     * A call gives up when every connection stays busy past the time-out.
+     */
+    @Test
+    public void borrowTimesOut() throws Exception {
+        DirContextPool pool = pool(1, 50);
+        Thread holder = new Thread(() -> {
+            try {
+                pool.getContext().getAttributes("block");
+            } catch (NamingException e) {
+                fail();
+            }
+        });
+        holder.start();
+        blocking.await();
+        try {
+            pool.getContext().getAttributes("a");
+            fail();
+        } catch (NamingException e) {
+            assertTrue(e instanceof ServiceUnavailableException);
+        }
+        release.countDown();
+        holder.join();
+        assertEquals(1, pool.getTimeouts());
+        assertEquals(1, pool.getCreated());
+    }
+
+    /**
+     * Eviction closes idle connections beyond the minimum and tops it up.
+     */
+    @Test
+    public void evictsDownToMinimum() throws Exception {
+        DirContextPool pool = pool(4, 1000);
+        pool.evictIdle();
+        assertEquals(1, pool.getIdle());
+        Thread holder = new Thread(() -> {
+            try {
+                pool.getContext().getAttributes("block");
+            } catch (NamingException e) {
+                fail();
+            }
+        });
+        holder.start();
+        blocking.await();
+        pool.getContext().getAttributes("a");
+        release.countDown();
+        holder.join();
+        assertEquals(2, pool.getIdle());
+        Thread.sleep(5);
+        pool.evictIdle();
+        assertEquals(1, pool.getIdle());
+        assertEquals(1, closed.get());
+    }
+}
@@ -0,0 +1,260 @@
+package edu.northeastern.ccs.im.dao;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import edu.northeastern.ccs.im.Message;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the message journal and the repository built on it, using
+ * a temporary directory
+ */
+public class JournalMessageRepositoryTest {
+
+    private File directory;
+    private JournalMessageRepository repository;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal").toFile();
+        repository = new JournalMessageRepository(directory, 4096, true);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        repository.close();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void savedMessagesAreFoundBySenderAndReceiver() {
+        assertTrue(repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "hi bob")));
+        assertTrue(repository.saveMessage(Message.makeGroupMessage("bob", "team", "hi team")));
+        assertTrue(repository.saveMessage(Message.makeBroadcastMessage("alice", "hi all")));
+
+        List<Message> fromAlice = repository.getMessageBySender("alice");
+        assertEquals(2, fromAlice.size());
+        assertEquals("hi bob", fromAlice.get(0).getText());
+        assertEquals("bob", fromAlice.get(0).getMsgReceiver());
+        assertEquals("hi all", fromAlice.get(1).getText());
+
+        List<Message> toTeam = repository.getMessageByReceiver("team");
+        assertEquals(1, toTeam.size());
+        assertEquals("GRM", toTeam.get(0).getType());
+        assertEquals("bob", toTeam.get(0).getName());
+    }
+
+    @Test
+    public void conversationsHoldOnlyDirectMessagesBetweenTwoUsers() throws IOException {
+        repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "one"));
+        repository.saveMessage(Message.makeGroupMessage("alice", "bob", "to a group named bob"));
+        repository.saveMessage(Message.makeIndividualMessage("bob", "alice", "two"));
+        repository.saveMessage(Message.makeIndividualMessage("alice", "carol", "other"));
+
+        List<Message> conversation = repository.getConversation("bob", "alice");
+        assertEquals(2, conversation.size());
+        assertEquals("one", conversation.get(0).getText());
+        assertEquals("two", conversation.get(1).getText());
+
+        // The indexes are rebuilt from the journal when it is reopened.
+        repository.close();
+        repository = new JournalMessageRepository(directory, 4096, true);
+        assertEquals(2, repository.getConversation("alice", "bob").size());
+        assertEquals(3, repository.getMessageBySender("alice").size());
+    }
+
+    @Test
+    public void historyIsPagedInEitherOrder() {
+        for (int i = 0; i < 5; i++) {
+            repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "m" + i));
+        }
+
+        MessagePage first = repository.getMessageBySender("alice", 2, null, MessagePage.Order.OLDEST_FIRST);
+        assertEquals("m0", first.getMessages().get(0).getText());
+        assertEquals("m1", first.getMessages().get(1).getText());
+        assertTrue(first.hasMore());
+        MessagePage second = repository.getMessageBySender("alice", 2, first.getContinuation(),
+                MessagePage.Order.OLDEST_FIRST);
+        assertEquals("m2", second.getMessages().get(0).getText());
+        MessagePage last = repository.getMessageBySender("alice", 2, second.getContinuation(),
+                MessagePage.Order.OLDEST_FIRST);
+        assertEquals(1, last.getMessages().size());
+        assertEquals("m4", last.getMessages().get(0).getText());
+        assertFalse(last.hasMore());
+
+        MessagePage newest = repository.getMessageByReceiver("bob", 3, null, MessagePage.Order.NEWEST_FIRST);
+        assertEquals("m4", newest.getMessages().get(0).getText());
+        assertEquals("m2", newest.getMessages().get(2).getText());
+        MessagePage older = repository.getMessageByReceiver("bob", 3, newest.getContinuation(),
+                MessagePage.Order.NEWEST_FIRST);
+        assertEquals(2, older.getMessages().size());
+        assertEquals("m0", older.getMessages().get(1).getText());
+        assertNull(older.getContinuation());
+    }
+
+    @Test
+    public void historyCanBeWalkedLazily() {
+        for (int i = 0; i < 7; i++) {
+            repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "m" + i));
+        }
+        Iterator<Message> messages = repository.iterateMessageBySender("alice", 3, MessagePage.Order.NEWEST_FIRST);
+        for (int i = 6; i >= 0; i--) {
+            assertTrue(messages.hasNext());
+            assertEquals("m" + i, messages.next().getText());
+        }
+        assertFalse(messages.hasNext());
+        assertFalse(repository.iterateMessageByReceiver("nobody", 3, MessagePage.Order.OLDEST_FIRST).hasNext());
+    }
+
+    @Test
+    public void badContinuationIsRefused() {
+        try {
+            repository.getMessageBySender("alice", 2, "not a token", MessagePage.Order.OLDEST_FIRST);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().contains("not a token"));
+        }
+    }
+
+    @Test
+    public void messagesAreFoundByTimeRangeAndConversation() throws InterruptedException {
+        repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "early"));
+        Thread.sleep(5);
+        long from = System.currentTimeMillis();
+        repository.saveMessage(Message.makeIndividualMessage("bob", "alice", "reply"));
+        repository.saveMessage(Message.makeGroupMessage("alice", "team", "to the team"));
+        repository.saveMessage(Message.makeIndividualMessage("alice", "carol", "aside"));
+        long to = System.currentTimeMillis() + 1;
+
+        List<Message> all = repository.getMessagesBetween(from, to, null);
+        assertEquals(3, all.size());
+        assertEquals("reply", all.get(0).getText());
+        List<Message> direct = repository.getMessagesBetween(from, to,
+                MessageRepository.directConversation("alice", "bob"));
+        assertEquals(1, direct.size());
+        assertEquals("reply", direct.get(0).getText());
+        assertEquals(2, repository.getMessagesBetween(0, to,
+                MessageRepository.directConversation("bob", "alice")).size());
+        assertEquals("to the team", repository.getMessagesBetween(from, to, "team").get(0).getText());
+        assertTrue(repository.getMessagesBetween(to, to + 1000, null).isEmpty());
+    }
+
+    @Test
+    public void messagesAreFoundByTimestamp() {
+        String now = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss").format(new Date());
+        repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "hi"));
+        String after = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss").format(new Date());
+        int found = repository.getMessageByTimestamp(now).size() + (now.equals(after) ? 0
+                : repository.getMessageByTimestamp(after).size());
+        assertEquals(1, found);
+        assertTrue(repository.getMessageByTimestamp("2000.01.01 00:00:00").isEmpty());
+    }
+
+    @Test
+    public void recordsRoundTripWithFlagsAndUnicode() {
+        byte[] record = JournalMessageRepository.encode(
+                Message.makeIndividualMessage("zo\u00eb", "bob", "na\u00efve \u2603"), true, 1234567890123L);
+        JournalMessageRepository.Stored stored = JournalMessageRepository.decode(ByteBuffer.wrap(record));
+        assertTrue(stored.flagged);
+        assertEquals(1234567890123L, stored.time);
+        assertTrue(stored.id > 0);
+        assertEquals("zo\u00eb", stored.sender);
+        assertEquals("bob", stored.receiver);
+        assertEquals("na\u00efve \u2603", stored.text);
+    }
+
+    @Test
+    public void messagesKeepTheirIdentifiers() throws IOException {
+        Message sent = Message.makeIndividualMessage("alice", "bob", "hi");
+        repository.saveMessage(sent);
+        repository.close();
+        repository = new JournalMessageRepository(directory, 4096, true);
+        assertEquals(sent.getId(), repository.getMessageBySender("alice").get(0).getId());
+    }
+
+    @Test
+    public void repeatedSaveIsDropped() throws IOException {
+        Message sent = Message.makeIndividualMessage("alice", "bob", "once");
+        assertTrue(repository.saveMessage(sent));
+        assertTrue(repository.saveMessage(sent));
+        assertEquals(1, repository.getMessageBySender("alice").size());
+
+        // Identifiers saved before reopening are still known.
+        repository.close();
+        repository = new JournalMessageRepository(directory, 4096, true);
+        assertTrue(repository.saveMessage(sent));
+        assertEquals(1, repository.getMessageBySender("alice").size());
+    }
+
+    @Test
+    public void segmentsRollAndSurviveReopening() throws IOException {
+        for (int i = 0; i < 200; i++) {
+            assertTrue(repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "message " + i)));
+        }
+        repository.close();
+        repository = new JournalMessageRepository(directory, 4096, true);
+
+        List<Message> messages = repository.getMessageBySender("alice");
+        assertEquals(200, messages.size());
+        assertEquals("message 0", messages.get(0).getText());
+        assertEquals("message 199", messages.get(199).getText());
+        assertTrue(directory.listFiles().length > 1);
+
+        repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "after"));
+        assertEquals(201, repository.getMessageBySender("alice").size());
+    }
+
+    @Test
+    public void tornRecordIsDroppedOnReopening() throws IOException {
+        repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "kept"));
+        repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "torn"));
+        repository.close();
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // Damage the last byte of the second record's text.
+            int first = file.readInt();
+            long second = 8L + first;
+            file.seek(second);
+            int length = file.readInt();
+            file.seek(second + 8 + length - 1);
+            file.write('X');
+        }
+        repository = new JournalMessageRepository(directory, 4096, true);
+
+        List<Message> messages = repository.getMessageBySender("alice");
+        assertEquals(1, messages.size());
+        assertEquals("kept", messages.get(0).getText());
+
+        repository.saveMessage(Message.makeIndividualMessage("alice", "bob", "again"));
+        assertEquals("again", repository.getMessageBySender("alice").get(1).getText());
+    }
+
+    @Test
+    public void tooLargeMessageIsRefused() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append('x');
+        }
+        assertFalse(repository.saveMessage(Message.makeIndividualMessage("alice", "bob", text.toString())));
+        assertTrue(repository.getMessageBySender("alice").isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package edu.northeastern.ccs.im.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the secondary indexes over the message journal
+ */
+public class MessageIndexTest {
+
+    @Test
+    public void positionsStayInLogOrder() {
+        MessageIndex index = new MessageIndex();
+        index.add(30, "alice", "bob", 0);
+        index.add(10, "alice", "bob", 0);
+        index.add(20, "alice", "carol", 0);
+        index.add(40, "bob", "alice", 0);
+
+        assertArrayEquals(new long[] { 10, 20, 30 }, index.bySender("alice"));
+        assertArrayEquals(new long[] { 10, 30 }, index.byReceiver("bob"));
+        assertArrayEquals(new long[0], index.bySender("nobody"));
+        assertEquals(2, index.getSenderCount());
+    }
+
+    @Test
+    public void pagesStartAfterTheLastPositionRead() {
+        MessageIndex index = new MessageIndex();
+        for (long position = 10; position <= 50; position += 10) {
+            index.add(position, "alice", "bob", 0);
+        }
+
+        assertArrayEquals(new long[] { 10, 20 }, index.bySender("alice", -1, 2, false));
+        assertArrayEquals(new long[] { 30, 40 }, index.bySender("alice", 20, 2, false));
+        assertArrayEquals(new long[] { 50 }, index.bySender("alice", 40, 2, false));
+        assertArrayEquals(new long[] { 50, 40 }, index.byReceiver("bob", -1, 2, true));
+        assertArrayEquals(new long[] { 30, 20 }, index.byReceiver("bob", 40, 2, true));
+        assertArrayEquals(new long[] { 10 }, index.byReceiver("bob", 20, 2, true));
+        assertArrayEquals(new long[0], index.byReceiver("bob", 10, 2, true));
+        assertArrayEquals(new long[] { 30 }, index.bySender("alice", 25, 1, false));
+    }
+
+    @Test
+    public void conversationsAreTheSameFromEitherSide() {
+        MessageIndex index = new MessageIndex();
+        index.addConversation(1, "alice", "bob", 100);
+        index.addConversation(2, "bob", "alice", 200);
+        index.addConversation(3, "alice", "carol", 300);
+
+        assertArrayEquals(new long[] { 1, 2 }, index.byConversation("bob", "alice"));
+        assertArrayEquals(new long[] { 3 }, index.byConversation("alice", "carol"));
+        assertArrayEquals(new long[] { 2 },
+                index.byConversation(MessageRepository.directConversation("alice", "bob"), 150, 300));
+    }
+
+    @Test
+    public void conversationRangesFindTheirEndsByTime() {
+        MessageIndex index = new MessageIndex();
+        for (long i = 0; i < 10; i++) {
+            index.add(i, "alice", "team", 1000 + i * 10);
+        }
+        index.add(10, "bob", "other", 1035);
+
+        assertArrayEquals(new long[] { 3, 4, 5 }, index.byConversation("team", 1030, 1060));
+        assertArrayEquals(new long[] { 3, 4, 5 }, index.byConversation("team", 1021, 1051));
+        assertArrayEquals(new long[0], index.byConversation("team", 2000, 3000));
+        assertArrayEquals(new long[0], index.byConversation("nobody", 0, 3000));
+    }
+
+    @Test
+    public void timeRangesReadOnlyTheBucketsTheyOverlap() {
+        MessageIndex index = new MessageIndex();
+        long minute = MessageIndex.BUCKET_MS;
+        index.add(1, "a", "b", 0);
+        index.add(2, "a", "b", minute + 5);
+        index.add(3, "a", "b", 2 * minute + 5);
+        index.add(4, "a", "b", 5 * minute);
+
+        assertArrayEquals(new long[] { 2 }, index.byTime(minute, 2 * minute));
+        assertArrayEquals(new long[] { 2, 3 }, index.byTime(minute + 5, 2 * minute + 6));
+        assertArrayEquals(new long[0], index.byTime(minute + 10, 2 * minute + 1));
+        assertArrayEquals(new long[] { 1, 2, 3, 4 }, index.byTime(0, 6 * minute));
+        assertArrayEquals(new long[0], index.byTime(3 * minute, 4 * minute));
+        assertEquals(4, index.getBucketCount());
+    }
+}
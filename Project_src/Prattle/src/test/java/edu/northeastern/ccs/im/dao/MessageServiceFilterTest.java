@@ -0,0 +1,78 @@
+package edu.northeastern.ccs.im.dao;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests how message identifiers and timestamps are stored and matched
+ * in the directory
+ */
+public class MessageServiceFilterTest {
+
+    @Test
+    public void timestampsArePaddedToSortAsText() {
+        assertEquals("0000000001234", MessageService.timestampOf(1234));
+        assertEquals("1700000000000", MessageService.timestampOf(1700000000000L));
+        assertTrue(MessageService.timestampOf(999999999999L).compareTo(MessageService.timestampOf(1000000000000L)) < 0);
+    }
+
+    @Test
+    public void uidsAreMessageIdentifiers() {
+        assertEquals("0000000000000001234", MessageService.uidOf(1234));
+        assertEquals(1234, MessageService.idOf(MessageService.uidOf(1234)));
+        assertEquals(Long.MAX_VALUE, MessageService.idOf(MessageService.uidOf(Long.MAX_VALUE)));
+        assertEquals(-1, MessageService.idOf("1700000000000alice"));
+        assertEquals(-1, MessageService.idOf("alice"));
+    }
+
+    @Test
+    public void rangesBecomeFewPrefixes() {
+        assertEquals("|(l=000000000123*)", MessageService.timeFilter(1230, 1240));
+        assertEquals("|(l=0000000001238)(l=0000000001239)(l=000000000124*)(l=000000000125*)(l=000000000126*)"
+                + "(l=000000000127*)(l=000000000128*)(l=000000000129*)(l=00000000013*)(l=0000000001400)",
+                MessageService.timeFilter(1238, 1401));
+        assertEquals("|(l=1700000000*)", MessageService.timeFilter(1700000000000L, 1700000001000L));
+    }
+
+    @Test
+    public void everyTimestampInRangeMatchesAndNoOther() {
+        long from = 1234;
+        long to = 5678;
+        String filter = MessageService.timeFilter(from, to);
+        for (long time = 1000; time < 7000; time++) {
+            String stamp = MessageService.timestampOf(time);
+            boolean matched = false;
+            for (String term : filter.substring(2, filter.length() - 1).split("\\)\\(")) {
+                String value = term.substring("l=".length());
+                matched |= value.endsWith("*") ? stamp.startsWith(value.substring(0, value.length() - 1))
+                        : stamp.equals(value);
+            }
+            assertEquals(time >= from && time < to, matched);
+        }
+    }
+
+    @Test
+    public void emptyRangeMatchesNothing() {
+        assertEquals("|(!(objectclass=*))", MessageService.timeFilter(10, 10));
+    }
+
+    @Test
+    public void idRangesMatchUidsPastTheToken() {
+        assertEquals("|(uid=000000000000000123*)", MessageService.idFilter(1230, 1240));
+        String filter = MessageService.idFilter(1235, Long.MAX_VALUE);
+        for (long id : new long[] { 1234, 1235, 1236, 99999, 1L << 62, Long.MAX_VALUE }) {
+            String uid = MessageService.uidOf(id);
+            boolean matched = false;
+            for (String term : filter.substring(2, filter.length() - 1).split("\\)\\(")) {
+                String value = term.substring("uid=".length());
+                matched |= value.endsWith("*") ? uid.startsWith(value.substring(0, value.length() - 1))
+                        : uid.equals(value);
+            }
+            assertEquals(id >= 1235, matched);
+        }
+        // At most nine prefixes for each digit.
+        assertTrue(filter.split("\\(uid=").length - 1 <= 9 * 19);
+        assertEquals("|(!(objectclass=*))", MessageService.idFilter(0, 0));
+    }
+}
@@ -0,0 +1,160 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests when the reactor and polling dispatchers run their clients,
+ * over a real socket pair
+ */
+public class ClientDispatcherTest {
+
+    private ServerSocketChannel server;
+    private SocketChannel peer;
+    private SocketChannel accepted;
+    private ExecutorService workers;
+
+    /**
+     * A client that only counts its runs and reads whatever has arrived.
+     */
+    private static class CountingClient extends ClientRunnable {
+        final AtomicInteger runs = new AtomicInteger();
+        volatile CountDownLatch ran = new CountDownLatch(1);
+        volatile CountDownLatch release;
+
+        CountingClient(SocketChannel channel) throws IOException {
+            super(channel, "Pat");
+        }
+
+        @Override
+        public void run() {
+            runs.incrementAndGet();
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(256);
+                while (getChannel().read(buffer) > 0) {
+                    buffer.clear();
+                }
+                if (release != null) {
+                    release.await(2, TimeUnit.SECONDS);
+                }
+            } catch (IOException | InterruptedException e) {
+                fail(e.toString());
+            }
+            ran.countDown();
+        }
+    }
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        peer = SocketChannel.open(server.socket().getLocalSocketAddress());
+        accepted = server.accept();
+        workers = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        workers.shutdownNow();
+        peer.close();
+        accepted.close();
+        server.close();
+    }
+
+    /**
+     * An idle client is left alone; bytes arriving get it run.
+     */
+    @Test
+    public void reactorRunsClientWhenBytesArrive() throws IOException, InterruptedException {
+        ClientReactor reactor = new ClientReactor("test-reactor", workers);
+        reactor.start();
+        CountingClient client = new CountingClient(accepted);
+        reactor.register(client);
+
+        Thread.sleep(100);
+        assertEquals(0, client.runs.get());
+
+        peer.write(ByteBuffer.wrap("HLO 3 Pat 2 --".getBytes()));
+        assertTrue(client.ran.await(2, TimeUnit.SECONDS));
+        assertTrue(client.runs.get() >= 1);
+
+        // Once the bytes are read the client waits for the next ones.
+        int runs = client.runs.get();
+        Thread.sleep(100);
+        assertEquals(runs, client.runs.get());
+        client.ran = new CountDownLatch(1);
+        peer.write(ByteBuffer.wrap("BYE 3 Pat 2 --".getBytes()));
+        assertTrue(client.ran.await(2, TimeUnit.SECONDS));
+        reactor.shutdown();
+    }
+
+    /**
+     * A client being run is not handed to a second worker, however often it is
+     * dispatched meanwhile.
+     */
+    @Test
+    public void reactorRunsClientOnceAtATime() throws IOException, InterruptedException {
+        ClientReactor reactor = new ClientReactor("test-reactor", workers);
+        reactor.start();
+        CountingClient client = new CountingClient(accepted);
+        client.release = new CountDownLatch(1);
+        reactor.register(client);
+
+        reactor.dispatch(client);
+        Thread.sleep(50);
+        reactor.dispatch(client);
+        reactor.dispatch(client);
+        client.release.countDown();
+        assertTrue(client.ran.await(2, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(1, client.runs.get());
+        reactor.shutdown();
+    }
+
+    /**
+     * The load of a reactor is the number of clients it owns.
+     */
+    @Test
+    public void reactorLoadFollowsRegistration() throws IOException {
+        ClientReactor reactor = new ClientReactor("test-reactor", workers);
+        CountingClient client = new CountingClient(accepted);
+        assertEquals(0, reactor.getLoad());
+        reactor.register(client);
+        assertEquals(1, reactor.getLoad());
+        reactor.deregister(client);
+        assertEquals(0, reactor.getLoad());
+        reactor.shutdown();
+    }
+
+    /**
+     * The polling dispatcher runs every client on a fixed schedule, traffic or
+     * not, until it is shut down.
+     */
+    @Test
+    public void pollingRunsClientOnSchedule() throws IOException, InterruptedException {
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1);
+        PollingDispatcher dispatcher = new PollingDispatcher(pool);
+        CountingClient client = new CountingClient(accepted);
+        client.ran = new CountDownLatch(2);
+        dispatcher.register(client);
+
+        assertTrue(client.ran.await(2, TimeUnit.SECONDS));
+        dispatcher.shutdown();
+        assertTrue(pool.awaitTermination(2, TimeUnit.SECONDS));
+    }
+}
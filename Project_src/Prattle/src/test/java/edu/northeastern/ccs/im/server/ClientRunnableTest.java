@@ -1,6 +1,7 @@
 package edu.northeastern.ccs.im.server;
 
 import edu.northeastern.ccs.im.Message;
+import edu.northeastern.ccs.im.PrintNetNB;
 import edu.northeastern.ccs.im.ScanNetNB;
 import edu.northeastern.ccs.im.SocketNB;
 import org.junit.jupiter.api.*;
@@ -80,7 +81,7 @@ public class ClientRunnableTest {
     }
 
     /**
-     * Test enqueueMessage method using reflection to access the list
+     * Test enqueueMessage method using reflection to access the queue
      *
      * @throws NoSuchFieldException
      * @throws IllegalAccessException
@@ -91,8 +92,8 @@ public class ClientRunnableTest {
         final Field field = clientRunnable.getClass().getDeclaredField("waitingList");
 
         field.setAccessible(true);
-        Queue<Message> messageList = new LinkedList<>();
-        field.set(clientRunnable, messageList);
+        @SuppressWarnings("unchecked")
+        Queue<Message> messageList = (Queue<Message>) field.get(clientRunnable);
 
         assertEquals(0, messageList.size());
         Message message = Message.makeBroadcastMessage("Farha","Hello!!");
@@ -430,6 +431,87 @@ public class ClientRunnableTest {
   }
 
 
+    /**
+     * A direct message sent under another user's name is refused, and the
+     * sender is told why
+     */
+    @Test
+    void runForIndividualMessageFromAnotherName() throws IOException, NoSuchFieldException, IllegalAccessException {
+        List<Message> sent = new ArrayList<>();
+        ClientRunnable client = new ClientRunnable(channel) {
+            @Override
+            public void enqueueMessage(Message message) {
+                sent.add(message);
+            }
+        };
+        ScanNetNB scanNetNB = new ScanNetNB(channel);
+        final Field scanNetNBMessages = scanNetNB.getClass().getDeclaredField("messages");
+        scanNetNBMessages.setAccessible(true);
+        Queue<Message> messageList = new LinkedList<>();
+        scanNetNBMessages.set(scanNetNB, messageList);
+        messageList.offer(Message.makeIndividualMessage("B", "C", "text"));
+
+        final Field clientRunnableInput = ClientRunnable.class.getDeclaredField("input");
+        clientRunnableInput.setAccessible(true);
+        clientRunnableInput.set(client, scanNetNB);
+        final Field clientRunnableInitialized = ClientRunnable.class.getDeclaredField("initialized");
+        clientRunnableInitialized.setAccessible(true);
+        clientRunnableInitialized.set(client, true);
+        final Field clientRunnableName = ClientRunnable.class.getDeclaredField("name");
+        clientRunnableName.setAccessible(true);
+        clientRunnableName.set(client, "A");
+
+        client.run();
+        assertEquals(1, sent.size());
+        assertEquals(ServerConstants.BOUNCER_ID, sent.get(0).getName());
+        assertTrue(sent.get(0).getText().contains("incorrect user name"));
+        channel.close();
+    }
+
+    /**
+     * A client resuming a full retransmit window over a socket nobody reads is
+     * sent what the socket takes, and is not dropped for the rest
+     */
+    @Test
+    void runResumesLongWindowWithoutOverflowing() throws IOException, NoSuchFieldException, IllegalAccessException {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 4000; i++) {
+            padding.append('x');
+        }
+        DeliveryWindow window = new DeliveryWindow(ServerConstants.RETRANSMIT_WINDOW);
+        for (int i = 0; i < ServerConstants.RETRANSMIT_WINDOW; i++) {
+            window.record(Message.makeBroadcastMessage("B", i + padding.toString()));
+        }
+        Prattle.parkDeliveryWindow("A", window);
+
+        ScanNetNB scanNetNB = new ScanNetNB(channel);
+        final Field scanNetNBMessages = scanNetNB.getClass().getDeclaredField("messages");
+        scanNetNBMessages.setAccessible(true);
+        Queue<Message> messageList = new LinkedList<>();
+        scanNetNBMessages.set(scanNetNB, messageList);
+        messageList.offer(Message.makeSequenceMessage("A", 0, window.getToken()));
+
+        final Field clientRunnableInput = ClientRunnable.class.getDeclaredField("input");
+        clientRunnableInput.setAccessible(true);
+        clientRunnableInput.set(clientRunnable, scanNetNB);
+        final Field clientRunnableInitialized = ClientRunnable.class.getDeclaredField("initialized");
+        clientRunnableInitialized.setAccessible(true);
+        clientRunnableInitialized.set(clientRunnable, true);
+        final Field clientRunnableName = ClientRunnable.class.getDeclaredField("name");
+        clientRunnableName.setAccessible(true);
+        clientRunnableName.set(clientRunnable, "A");
+
+        clientRunnable.run();
+        final Field output = ClientRunnable.class.getDeclaredField("output");
+        output.setAccessible(true);
+        assertFalse(((PrintNetNB) output.get(clientRunnable)).isFailed());
+        final Field resends = ClientRunnable.class.getDeclaredField("resends");
+        resends.setAccessible(true);
+        assertFalse(((Queue<?>) resends.get(clientRunnable)).isEmpty());
+        assertTrue(clientRunnable.getChannel().isOpen());
+        channel.close();
+    }
+
     @SuppressWarnings("unchecked")
 	@Test
     void runToExecuteMessageTerminate() throws IOException, NoSuchFieldException, IllegalAccessException{
@@ -543,4 +625,35 @@ public class ClientRunnableTest {
       assertTrue(isInitialized);
 
    }
-}
\ No newline at end of file
+
+    /**
+     * Every message already received is processed in a single run.
+     */
+    @Test
+    void runDrainsAllQueuedMessages() throws IOException, NoSuchFieldException, IllegalAccessException {
+        ScanNetNB scanNetNB = new ScanNetNB(channel);
+
+        final Field scanNetNBMessages = scanNetNB.getClass().getDeclaredField("messages");
+        scanNetNBMessages.setAccessible(true);
+        Queue<Message> messageList = new LinkedList<>();
+        scanNetNBMessages.set(scanNetNB, messageList);
+        for (int i = 0; i < 5; i++) {
+            messageList.offer(Message.makeBroadcastMessage("Farha", "line " + i));
+        }
+
+        final Field clientRunnableInput = clientRunnable.getClass().getDeclaredField("input");
+        clientRunnableInput.setAccessible(true);
+        clientRunnableInput.set(clientRunnable, scanNetNB);
+
+        final Field clientRunnableInitialized = clientRunnable.getClass().getDeclaredField("initialized");
+        clientRunnableInitialized.setAccessible(true);
+        clientRunnableInitialized.set(clientRunnable, true);
+
+        final Field clientRunnableName = clientRunnable.getClass().getDeclaredField("name");
+        clientRunnableName.setAccessible(true);
+        clientRunnableName.set(clientRunnable, "Farha");
+
+        clientRunnable.run();
+        assertTrue(messageList.isEmpty());
+    }
+}
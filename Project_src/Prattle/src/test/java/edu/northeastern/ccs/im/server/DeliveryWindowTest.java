@@ -0,0 +1,97 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the sequence numbering and retransmit window
+ */
+public class DeliveryWindowTest {
+
+    private static Message text(String text) {
+        return Message.makeBroadcastMessage("Pat", text);
+    }
+
+    /**
+     * Messages are numbered from one and kept until acknowledged.
+     */
+    @Test
+    public void numberAndAcknowledge() {
+        DeliveryWindow window = new DeliveryWindow(8);
+        assertEquals(1, window.record(text("one")));
+        assertEquals(2, window.record(text("two")));
+        assertEquals(3, window.record(text("three")));
+
+        window.acknowledge(2);
+        assertEquals(3, window.firstUnacknowledged());
+        List<Message> resend = window.unacknowledged();
+        assertEquals(1, resend.size());
+        assertEquals("three", resend.get(0).getText());
+
+        // Stale and premature acknowledgements are ignored.
+        window.acknowledge(1);
+        window.acknowledge(99);
+        assertEquals(4, window.firstUnacknowledged());
+        assertTrue(window.unacknowledged().isEmpty());
+        assertEquals(4, window.getNextSequence());
+    }
+
+    /**
+     * A client that falls too far behind loses the oldest messages.
+     */
+    @Test
+    public void overflowGivesUpOldest() {
+        DeliveryWindow window = new DeliveryWindow(2);
+        window.record(text("one"));
+        window.record(text("two"));
+        window.record(text("three"));
+        assertEquals(1, window.getLost());
+        assertEquals(2, window.firstUnacknowledged());
+        List<Message> resend = window.unacknowledged();
+        assertEquals("two", resend.get(0).getText());
+        assertEquals("three", resend.get(1).getText());
+    }
+
+    /**
+     * SEQ frames carry their number as text.
+     */
+    @Test
+    public void sequenceMessage() {
+        Message seq = Message.makeSequenceMessage("Pat", 42);
+        assertTrue(seq.isSequence());
+        assertTrue(seq.isControlMessage());
+        assertEquals(42, seq.getSequence());
+        Message decoded = Message.makeMessage("SEQ", "Pat", "17");
+        assertEquals(17, decoded.getSequence());
+        assertEquals(-1, Message.makeMessage("SEQ", "Pat", "x").getSequence());
+        assertNull(seq.getSequenceToken());
+
+        Message named = Message.makeSequenceMessage("Pat", 42, "abc");
+        assertEquals(42, named.getSequence());
+        assertEquals("abc", named.getSequenceToken());
+        assertEquals("abc", Message.makeMessage("SEQ", "Pat", "17:abc").getSequenceToken());
+    }
+
+    /**
+     * Windows parked by two sessions of one user are kept apart, and only the
+     * session naming a window's token takes it over.
+     */
+    @Test
+    public void parkedWindowsAreKeptPerToken() {
+        DeliveryWindow laptop = new DeliveryWindow(8);
+        DeliveryWindow phone = new DeliveryWindow(8);
+        assertNotEquals(laptop.getToken(), phone.getToken());
+        Prattle.parkDeliveryWindow("Pat", laptop);
+        Prattle.parkDeliveryWindow("Pat", phone);
+
+        assertNull(Prattle.resumeDeliveryWindow("Pat", null));
+        assertNull(Prattle.resumeDeliveryWindow("Sam", phone.getToken()));
+        assertSame(phone, Prattle.resumeDeliveryWindow("Pat", phone.getToken()));
+        assertSame(laptop, Prattle.resumeDeliveryWindow("Pat", laptop.getToken()));
+        assertNull(Prattle.resumeDeliveryWindow("Pat", laptop.getToken()));
+    }
+}
@@ -0,0 +1,141 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the bounded outbound queue and its overflow policies
+ */
+public class OutboundQueueTest {
+
+    private final List<Message> spilled = new ArrayList<>();
+
+    private OutboundQueue byCount(OutboundQueue.OverflowPolicy policy) {
+        return new OutboundQueue(2, policy, Long.MAX_VALUE, OutboundQueue.OverflowPolicy.DISCONNECT, spilled::add);
+    }
+
+    private static Message text(String text) {
+        return Message.makeBroadcastMessage("Pat", text);
+    }
+
+    /**
+     * Dropping the oldest keeps the most recent messages.
+     */
+    @Test
+    public void dropOldest() {
+        OutboundQueue queue = byCount(OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        long before = OutboundQueue.getDroppedTotal(OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        assertTrue(queue.offer(text("one")));
+        assertTrue(queue.offer(text("two")));
+        assertTrue(queue.offer(text("three")));
+        assertEquals(2, queue.size());
+        assertEquals("two", queue.poll().getText());
+        assertEquals("three", queue.poll().getText());
+        assertEquals(1, queue.getDropped());
+        assertEquals(before + 1, OutboundQueue.getDroppedTotal(OutboundQueue.OverflowPolicy.DROP_OLDEST));
+    }
+
+    /**
+     * Dropping the newest refuses messages once the queue is full.
+     */
+    @Test
+    public void dropNewest() {
+        OutboundQueue queue = byCount(OutboundQueue.OverflowPolicy.DROP_NEWEST);
+        queue.offer(text("one"));
+        queue.offer(text("two"));
+        assertFalse(queue.offer(text("three")));
+        assertEquals("one", queue.peek().getText());
+        assertEquals(1, queue.getDropped());
+        assertFalse(queue.isOverflowed());
+    }
+
+    /**
+     * Spilled messages are handed to the offline store.
+     */
+    @Test
+    public void spill() {
+        OutboundQueue queue = byCount(OutboundQueue.OverflowPolicy.SPILL);
+        queue.offer(text("one"));
+        queue.offer(text("two"));
+        assertFalse(queue.offer(text("three")));
+        assertEquals(1, spilled.size());
+        assertEquals("three", spilled.get(0).getText());
+    }
+
+    /**
+     * Breaking the byte limit with the disconnect policy flags the client.
+     */
+    @Test
+    public void disconnectOnBytes() {
+        Message first = text("one");
+        long size = first.encode().remaining();
+        OutboundQueue queue = new OutboundQueue(100, OutboundQueue.OverflowPolicy.DROP_OLDEST, size + 1,
+                OutboundQueue.OverflowPolicy.DISCONNECT, spilled::add);
+        assertTrue(queue.offer(first));
+        assertEquals(size, queue.getBytes());
+        assertFalse(queue.offer(text("two")));
+        assertTrue(queue.isOverflowed());
+
+        queue.poll();
+        assertEquals(0, queue.getBytes());
+        assertTrue(queue.isEmpty());
+    }
+
+    /**
+     * Policies can be named in system properties.
+     */
+    @Test
+    public void parsePolicy() {
+        assertEquals(OutboundQueue.OverflowPolicy.DROP_NEWEST,
+                OutboundQueue.OverflowPolicy.parse("drop-newest", OutboundQueue.OverflowPolicy.SPILL));
+        assertEquals(OutboundQueue.OverflowPolicy.SPILL,
+                OutboundQueue.OverflowPolicy.parse("nonsense", OutboundQueue.OverflowPolicy.SPILL));
+        assertEquals(OutboundQueue.OverflowPolicy.SPILL,
+                OutboundQueue.OverflowPolicy.parse(null, OutboundQueue.OverflowPolicy.SPILL));
+    }
+
+    /**
+     * Control frames jump the queue and direct traffic outweighs bulk traffic.
+     */
+    @Test
+    public void lanesDrainByPriorityAndWeight() {
+        OutboundQueue queue = new OutboundQueue(100, OutboundQueue.OverflowPolicy.DROP_OLDEST, Long.MAX_VALUE,
+                OutboundQueue.OverflowPolicy.DISCONNECT, spilled::add, 2, 1);
+        for (int i = 0; i < 3; i++) {
+            queue.offer(text("bulk" + i));
+            queue.offer(Message.makeIndividualMessage("Pat", "Sam", "direct" + i));
+        }
+        queue.offer(Message.makeAcknowledgeMessage("Sam"));
+        assertEquals(1, queue.size(OutboundQueue.Lane.CONTROL));
+        assertEquals(3, queue.size(OutboundQueue.Lane.DIRECT));
+
+        assertTrue(queue.peek().isAcknowledge());
+        assertTrue(queue.poll().isAcknowledge());
+        String[] expected = { "direct0", "direct1", "bulk0", "direct2", "bulk1", "bulk2" };
+        for (String text : expected) {
+            assertEquals(text, queue.peek().getText());
+            assertEquals(text, queue.poll().getText());
+        }
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    /**
+     * Making room drops bulk traffic before direct messages or control frames.
+     */
+    @Test
+    public void dropOldestTakesBulkFirst() {
+        OutboundQueue queue = byCount(OutboundQueue.OverflowPolicy.DROP_OLDEST);
+        queue.offer(Message.makeQuitMessage("Pat"));
+        queue.offer(text("bulk"));
+        queue.offer(Message.makeIndividualMessage("Pat", "Sam", "direct"));
+        assertTrue(queue.poll().terminate());
+        assertEquals("direct", queue.poll().getText());
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,66 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the per-user and per-address rate limits
+ */
+public class RateLimiterTest {
+
+    /**
+     * Each user has a limit of their own, and the counters say who went over it.
+     */
+    @Test
+    public void limitsEachUser() {
+        RateLimiter limiter = new RateLimiter(1, 2, 0, 0, RateLimiter.Policy.REJECT);
+        assertEquals(0, limiter.acquire("Pat", "10.0.0.1"));
+        assertEquals(0, limiter.acquire("Pat", "10.0.0.1"));
+        assertTrue(limiter.acquire("Pat", "10.0.0.1") > 0);
+        assertEquals(0, limiter.acquire("Sam", "10.0.0.1"));
+        assertEquals(2, limiter.getAdmitted("Pat"));
+        assertEquals(1, limiter.getLimited("Pat"));
+        assertEquals(0, limiter.getLimited("Sam"));
+        assertEquals(0, limiter.getLimited("Kim"));
+        assertEquals(RateLimiter.Policy.REJECT, limiter.getPolicy());
+    }
+
+    /**
+     * Users sharing an address share its limit.
+     */
+    @Test
+    public void limitsEachAddress() {
+        RateLimiter limiter = new RateLimiter(0, 0, 1, 2, RateLimiter.Policy.DELAY);
+        assertEquals(0, limiter.acquire("Pat", "10.0.0.1"));
+        assertEquals(0, limiter.acquire("Sam", "10.0.0.1"));
+        assertTrue(limiter.acquire("Kim", "10.0.0.1") > 0);
+        assertEquals(0, limiter.acquire("Kim", "10.0.0.2"));
+        assertEquals(0, limiter.acquire("Kim", null));
+    }
+
+    /**
+     * A message held back by its address costs its user nothing.
+     */
+    @Test
+    public void addressLimitDoesNotChargeUser() {
+        RateLimiter limiter = new RateLimiter(1, 2, 1, 1, RateLimiter.Policy.DELAY);
+        assertEquals(0, limiter.acquire("Pat", "10.0.0.1"));
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.acquire("Pat", "10.0.0.1") > 0);
+        }
+        assertEquals(1, limiter.getAdmitted("Pat"));
+        assertEquals(0, limiter.getLimited("Pat"));
+        assertEquals(0, limiter.acquire("Pat", "10.0.0.2"));
+    }
+
+    /**
+     * Policies can be named in system properties.
+     */
+    @Test
+    public void parsePolicy() {
+        assertEquals(RateLimiter.Policy.REJECT, RateLimiter.Policy.parse("Reject", RateLimiter.Policy.DELAY));
+        assertEquals(RateLimiter.Policy.DELAY, RateLimiter.Policy.parse("later", RateLimiter.Policy.DELAY));
+        assertEquals(RateLimiter.Policy.DELAY, RateLimiter.Policy.parse(null, RateLimiter.Policy.DELAY));
+    }
+}
@@ -0,0 +1,128 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests how a reactor group spreads clients over its event loops
+ */
+public class ReactorGroupTest {
+
+    private ExecutorService workers;
+    private ReactorGroup group;
+    private final List<ClientRunnable> clients = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        workers = Executors.newFixedThreadPool(1);
+        group = new ReactorGroup(3, workers);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException, InterruptedException {
+        // The unconnected test sockets fail their runs and close; let that
+        // finish before the selectors are closed under them.
+        workers.shutdownNow();
+        assertTrue(workers.awaitTermination(2, TimeUnit.SECONDS));
+        group.shutdown();
+        for (ClientRunnable client : clients) {
+            client.getChannel().close();
+        }
+    }
+
+    private ClientRunnable register() throws IOException {
+        ClientRunnable client = new ClientRunnable(SocketChannel.open(), "Pat");
+        clients.add(client);
+        group.register(client);
+        return client;
+    }
+
+    /**
+     * Equally loaded loops take new clients in turn.
+     */
+    @Test
+    public void tiesAreBrokenRoundRobin() throws IOException {
+        Set<ClientReactor> first = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            first.add(register().getReactor());
+        }
+        assertEquals(3, first.size());
+        for (int i = 0; i < 3; i++) {
+            register();
+        }
+        for (ClientReactor reactor : first) {
+            assertEquals(2, reactor.getLoad());
+        }
+    }
+
+    /**
+     * A new client goes to the loop with the fewest clients.
+     */
+    @Test
+    public void leastLoadedLoopTakesTheNextClient() throws IOException {
+        for (int i = 0; i < 6; i++) {
+            register();
+        }
+        ClientRunnable leaving = clients.get(4);
+        ClientReactor lighter = leaving.getReactor();
+        group.deregister(leaving);
+        assertEquals(1, lighter.getLoad());
+
+        assertSame(lighter, register().getReactor());
+        assertEquals(2, lighter.getLoad());
+    }
+
+    /**
+     * Clients spread evenly over every loop of the group.
+     */
+    @Test
+    public void clientsSpreadOverEveryLoop() throws IOException {
+        for (int i = 0; i < 9; i++) {
+            register();
+        }
+        Set<ClientReactor> used = new HashSet<>();
+        for (ClientRunnable client : clients) {
+            used.add(client.getReactor());
+        }
+        assertEquals(3, used.size());
+        for (ClientReactor reactor : used) {
+            assertEquals(3, reactor.getLoad());
+        }
+    }
+
+    /**
+     * A group asked for no loops still has one, which takes every client.
+     */
+    @Test
+    public void groupHasAtLeastOneLoop() throws IOException, InterruptedException {
+        ReactorGroup single = new ReactorGroup(0, workers);
+        ClientReactor only = null;
+        for (int i = 0; i < 3; i++) {
+            ClientRunnable client = new ClientRunnable(SocketChannel.open(), "Pat");
+            clients.add(client);
+            single.register(client);
+            assertNotNull(client.getReactor());
+            if (only == null) {
+                only = client.getReactor();
+            }
+            assertSame(only, client.getReactor());
+        }
+        assertEquals(3, only.getLoad());
+        workers.shutdownNow();
+        assertTrue(workers.awaitTermination(2, TimeUnit.SECONDS));
+        single.shutdown();
+    }
+}
@@ -0,0 +1,81 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the replay ring of missed messages
+ */
+public class ReplayRingTest {
+
+    private static Message text(String text) {
+        return Message.makeBroadcastMessage("Pat", text);
+    }
+
+    private final List<Message> overflow = new ArrayList<>();
+
+    /**
+     * Missed messages come back oldest first, once.
+     */
+    @Test
+    public void takeGapReturnsMissedMessages() {
+        ReplayRing ring = new ReplayRing(4, overflow::add);
+        ring.add(text("one"));
+        ring.add(text("two"));
+        List<Message> missed = ring.takeGap();
+        assertEquals(2, missed.size());
+        assertEquals("one", missed.get(0).getText());
+        assertEquals("two", missed.get(1).getText());
+        assertTrue(ring.takeGap().isEmpty());
+    }
+
+    /**
+     * A full ring keeps the newest messages and hands the rest to the overflow.
+     */
+    @Test
+    public void overflowKeepsNewest() {
+        ReplayRing ring = new ReplayRing(2, overflow::add);
+        ring.add(text("one"));
+        ring.add(text("two"));
+        assertTrue(overflow.isEmpty());
+        ring.add(text("three"));
+        assertEquals(1, ring.getOverwritten());
+        assertEquals(1, overflow.size());
+        assertEquals("one", overflow.get(0).getText());
+        List<Message> missed = ring.takeGap();
+        assertEquals("two", missed.get(0).getText());
+        assertEquals("three", missed.get(1).getText());
+        assertEquals(0, ring.getOverwritten());
+    }
+
+    /**
+     * The offline clock only runs while the user is away.
+     */
+    @Test
+    public void offlineFor() {
+        ReplayRing ring = new ReplayRing(2, overflow::add);
+        assertFalse(ring.isOfflineFor(0, 1000));
+        ring.setOnline(false, 1000);
+        assertFalse(ring.isOfflineFor(500, 1400));
+        assertTrue(ring.isOfflineFor(500, 1500));
+        ring.setOnline(true, 1600);
+        assertFalse(ring.isOfflineFor(500, 5000));
+        assertFalse(new ReplayRing(2, overflow::add).getToken().equals(ring.getToken()));
+    }
+
+    /**
+     * Resume tokens travel in RSM control frames.
+     */
+    @Test
+    public void resumeMessage() {
+        Message message = Message.makeMessage("RSM", "Pat", "abc");
+        assertTrue(message.isResume());
+        assertTrue(message.isControlMessage());
+        assertEquals("abc", message.getText());
+    }
+}
@@ -0,0 +1,209 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import edu.northeastern.ccs.im.dao.Group;
+import edu.northeastern.ccs.im.dao.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the routing registry
+ */
+public class RoutingRegistryTest {
+
+    private RoutingRegistry registry;
+    private ClientRunnable first;
+    private ClientRunnable second;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        registry = new RoutingRegistry();
+        first = new ClientRunnable(SocketChannel.open(), "Pat");
+        second = new ClientRunnable(SocketChannel.open(), "Pat");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        first.getChannel().close();
+        second.getChannel().close();
+    }
+
+    private static Group group(String name, String... members) {
+        List<User> users = new ArrayList<>();
+        for (String member : members) {
+            users.add(new User(member, "123456"));
+        }
+        return new Group(name, users);
+    }
+
+    /**
+     * A user stays online until their last session goes away.
+     */
+    @Test
+    public void sessionsComeAndGo() {
+        assertFalse(registry.isOnline("Pat"));
+        assertEquals(0, registry.sessionsOf("Pat").length);
+
+        registry.online("Pat", first);
+        registry.online("Pat", second);
+        registry.online("Pat", second);
+        assertEquals(2, registry.sessionsOf("Pat").length);
+
+        registry.offline("Pat", first);
+        assertTrue(registry.isOnline("Pat"));
+        assertSame(second, registry.sessionsOf("Pat")[0]);
+
+        registry.offline("Pat", second);
+        assertFalse(registry.isOnline("Pat"));
+    }
+
+    /**
+     * The online members of a group follow their members' transitions.
+     */
+    @Test
+    public void onlineMembersFollowTransitions() {
+        registry.online("Pat", first);
+        registry.addGroup(group("team", "Pat", "Sam"));
+        assertEquals(1, registry.onlineMembersOf("team").size());
+        assertTrue(registry.onlineMembersOf("team").contains("Pat"));
+
+        registry.offline("Pat", first);
+        assertTrue(registry.onlineMembersOf("team").isEmpty());
+
+        registry.online("Pat", second);
+        assertTrue(registry.onlineMembersOf("team").contains("Pat"));
+        assertTrue(registry.onlineMembersOf("unknown").isEmpty());
+    }
+
+    /**
+     * Registering a group again picks up its new membership.
+     */
+    @Test
+    public void reAddingGroupReindexes() {
+        registry.online("Pat", first);
+        registry.addGroup(group("team", "Pat"));
+        registry.addGroup(group("team", "Sam"));
+        assertTrue(registry.onlineMembersOf("team").isEmpty());
+
+        registry.offline("Pat", first);
+        registry.online("Pat", first);
+        assertTrue(registry.onlineMembersOf("team").isEmpty());
+    }
+
+    /**
+     * A group being re-indexed never looks empty to a message routed meanwhile,
+     * and ends up with the members' latest state.
+     */
+    @Test
+    public void fanOutDuringReindexSeesEveryMember() throws InterruptedException {
+        String[] names = new String[50];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = "user" + i;
+            registry.online(names[i], first);
+        }
+        Group team = group("team", names);
+        registry.addGroup(team);
+
+        AtomicBoolean done = new AtomicBoolean();
+        Thread reindexer = new Thread(() -> {
+            for (int i = 0; i < 2000; i++) {
+                registry.addGroup(team);
+            }
+            done.set(true);
+        });
+        reindexer.start();
+        int fanOuts = 0;
+        while (!done.get()) {
+            Set<String> online = registry.onlineMembersOf("team");
+            assertEquals(names.length, online.size());
+            fanOuts++;
+        }
+        reindexer.join();
+        assertTrue(fanOuts > 0);
+
+        // A member leaving while the group is re-indexed is not left behind.
+        Thread again = new Thread(() -> registry.addGroup(team));
+        again.start();
+        registry.offline("user0", first);
+        again.join();
+        assertFalse(registry.onlineMembersOf("team").contains("user0"));
+        assertTrue(registry.recentMembersOf("team").contains("user0"));
+        assertEquals(names.length - 1, registry.onlineMembersOf("team").size());
+    }
+
+    /**
+     * Agents are dropped from every tap when they go away.
+     */
+    @Test
+    public void removeAgentClearsTaps() {
+        registry.addGroup(group("team", "Pat"));
+        registry.setUserAgent("Pat", first);
+        registry.setGroupAgent("team", first);
+        assertSame(first, registry.getUserAgent("Pat"));
+        assertSame(first, registry.getGroupAgent("team"));
+
+        registry.removeAgent(first);
+        assertNull(registry.getUserAgent("Pat"));
+        assertNull(registry.getGroupAgent("team"));
+    }
+
+    /**
+     * Messages for a user who has just gone away are kept until they resume, and
+     * handed over if they stay away.
+     */
+    @Test
+    public void recentUsersKeepMissedMessages() {
+        Message message = Message.makeGroupMessage("Sam", "team", "hello");
+        assertFalse(registry.keepForResume("Pat", message));
+
+        registry.addGroup(group("team", "Pat", "Sam"));
+        registry.online("Pat", first);
+        assertFalse(registry.keepForResume("Pat", message));
+        assertTrue(registry.recentMembersOf("team").isEmpty());
+
+        registry.offline("Pat", first);
+        assertTrue(registry.recentMembersOf("team").contains("Pat"));
+        assertTrue(registry.keepForResume("Pat", message));
+        assertNull(registry.forgetIfOfflineFor("Pat", 60000));
+
+        ReplayRing ring = registry.forgetIfOfflineFor("Pat", 0);
+        assertSame(message, ring.takeGap().get(0));
+        assertNull(registry.replayRingOf("Pat"));
+        assertTrue(registry.recentMembersOf("team").isEmpty());
+        assertFalse(registry.keepForResume("Pat", message));
+    }
+
+    /**
+     * A user coming back gets what they missed with their first session, and
+     * what did not fit in their ring goes to the overflow.
+     */
+    @Test
+    public void returningUserGetsMissedMessages() {
+        List<String> spilled = new ArrayList<>();
+        RoutingRegistry small = new RoutingRegistry(2, (user, message) -> spilled.add(user + ":" + message.getText()));
+        small.online("Pat", first);
+        small.offline("Pat", first);
+        for (String text : new String[] { "one", "two", "three" }) {
+            assertTrue(small.keepForResume("Pat", Message.makeIndividualMessage("Sam", "Pat", text)));
+        }
+        assertEquals(1, spilled.size());
+        assertEquals("Pat:one", spilled.get(0));
+
+        List<Message> missed = small.online("Pat", first);
+        assertEquals(2, missed.size());
+        assertEquals("two", missed.get(0).getText());
+        assertEquals("three", missed.get(1).getText());
+        assertTrue(small.online("Pat", second).isEmpty());
+        assertTrue(small.replayRingOf("Pat").takeGap().isEmpty());
+    }
+}
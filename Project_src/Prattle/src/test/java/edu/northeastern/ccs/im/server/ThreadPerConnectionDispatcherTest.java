@@ -0,0 +1,113 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the thread-per-connection dispatcher over a real socket pair
+ */
+public class ThreadPerConnectionDispatcherTest {
+
+    private ServerSocketChannel server;
+    private SocketChannel peer;
+    private ClientRunnable client;
+    private ThreadPerConnectionDispatcher dispatcher;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        server = ServerSocketChannel.open();
+        server.socket().bind(new InetSocketAddress("127.0.0.1", 0));
+        peer = SocketChannel.open(server.socket().getLocalSocketAddress());
+        peer.configureBlocking(false);
+        client = new ClientRunnable(server.accept(), "Pat");
+        dispatcher = new ThreadPerConnectionDispatcher();
+        dispatcher.register(client);
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        dispatcher.shutdown();
+        peer.close();
+        client.getChannel().close();
+        server.close();
+    }
+
+    /**
+     * Read from the peer until the text has arrived or the connection ends.
+     */
+    private String readUntil(String expected) throws IOException, InterruptedException {
+        StringBuilder received = new StringBuilder();
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!received.toString().contains(expected) && System.currentTimeMillis() < deadline) {
+            int read = peer.read(buffer);
+            if (read < 0) {
+                break;
+            }
+            buffer.flip();
+            received.append(StandardCharsets.UTF_8.decode(buffer));
+            buffer.clear();
+            if (read == 0) {
+                Thread.sleep(10);
+            }
+        }
+        return received.toString();
+    }
+
+    private static int connectionThreads() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().startsWith("prattle-connection-") && thread.isAlive()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Output queued by others is written by the connection's one writer, however
+     * many times the client is dispatched.
+     */
+    @Test
+    public void queuedOutputIsWrittenByOneWriter() throws IOException, InterruptedException {
+        int threads = connectionThreads();
+        for (int i = 0; i < 5; i++) {
+            String text = "message " + i;
+            client.enqueueMessage(Message.makeBroadcastMessage("Sam", text));
+            dispatcher.dispatch(client);
+            assertTrue(readUntil(text).contains(text));
+        }
+        assertEquals(threads, connectionThreads());
+    }
+
+    /**
+     * A message from the peer is read and acted on by the connection's reader.
+     */
+    @Test
+    public void inputIsReadAndAnswered() throws IOException, InterruptedException {
+        Message quit = Message.makeQuitMessage("Pat");
+        peer.write(quit.encode());
+        String expected = quit.toString();
+        assertTrue(readUntil(expected).contains(expected));
+
+        // Saying goodbye closes the connection, which ends both threads.
+        ByteBuffer rest = ByteBuffer.allocate(64);
+        long deadline = System.currentTimeMillis() + 2000;
+        while (peer.read(rest) >= 0 && System.currentTimeMillis() < deadline) {
+            rest.clear();
+            Thread.sleep(10);
+        }
+        assertFalse(client.getChannel().isOpen());
+    }
+}
@@ -0,0 +1,68 @@
+package edu.northeastern.ccs.im.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the server's timing wheel
+ */
+public class TimingWheelTest {
+
+    private TimingWheel wheel;
+
+    @BeforeEach
+    public void setUp() {
+        wheel = new TimingWheel(10, 8, "test-timer");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        wheel.stop();
+    }
+
+    /**
+     * A timer fires once its delay has passed, not before.
+     */
+    @Test
+    public void firesAfterDelay() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        wheel.schedule(fired::countDown, 50);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 40);
+    }
+
+    /**
+     * Delays longer than one turn of the wheel wait out the extra rounds.
+     */
+    @Test
+    public void firesAfterSeveralRounds() throws InterruptedException {
+        CountDownLatch fired = new CountDownLatch(1);
+        long start = System.currentTimeMillis();
+        wheel.schedule(fired::countDown, 250);
+        assertTrue(fired.await(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 240);
+    }
+
+    /**
+     * A cancelled timer never fires.
+     */
+    @Test
+    public void cancelledTimerDoesNotFire() throws InterruptedException {
+        AtomicBoolean ran = new AtomicBoolean(false);
+        CountDownLatch later = new CountDownLatch(1);
+        TimingWheel.Timeout timeout = wheel.schedule(() -> ran.set(true), 30);
+        wheel.schedule(later::countDown, 100);
+        timeout.cancel();
+        assertTrue(timeout.isCancelled());
+        assertTrue(later.await(2, TimeUnit.SECONDS));
+        assertFalse(ran.get());
+    }
+}
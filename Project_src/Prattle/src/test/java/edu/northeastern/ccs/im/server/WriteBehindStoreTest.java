@@ -0,0 +1,88 @@
+package edu.northeastern.ccs.im.server;
+
+import edu.northeastern.ccs.im.Message;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * This class tests the background message writers
+ */
+public class WriteBehindStoreTest {
+
+    private final List<String> saved = new CopyOnWriteArrayList<>();
+
+    private static Message text(String text) {
+        return Message.makeBroadcastMessage("Pat", text);
+    }
+
+    /**
+     * Messages are saved in the background, in order for a single writer.
+     */
+    @Test
+    public void savesInBackground() {
+        WriteBehindStore store = new WriteBehindStore((message, flagged) -> saved.add(message.getText()),
+                100, 1, 8, 0, 1, 10);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(store.submit(text("m" + i), false));
+        }
+        assertTrue(store.flush(5000));
+        assertEquals(20, saved.size());
+        assertEquals("m0", saved.get(0));
+        assertEquals("m19", saved.get(19));
+        assertEquals(20, store.getWritten());
+        assertEquals(0, store.getQueued());
+    }
+
+    /**
+     * A failed save is retried, and given up after the last retry.
+     */
+    @Test
+    public void retriesThenGivesUp() {
+        AtomicInteger attempts = new AtomicInteger();
+        WriteBehindStore store = new WriteBehindStore((message, flagged) -> {
+            if (attempts.incrementAndGet() < 3) {
+                throw new IllegalStateException("directory down");
+            }
+            return !"bad".equals(message.getText());
+        }, 100, 1, 8, 2, 1, 10);
+        store.submit(text("good"), false);
+        assertTrue(store.flush(5000));
+        assertEquals(1, store.getWritten());
+        assertEquals(2, store.getRetried());
+
+        store.submit(text("bad"), true);
+        assertTrue(store.flush(5000));
+        assertEquals(1, store.getFailed());
+    }
+
+    /**
+     * A sender gives up on a queue that stays full.
+     */
+    @Test
+    public void dropsWhenFull() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch busy = new CountDownLatch(1);
+        WriteBehindStore store = new WriteBehindStore((message, flagged) -> {
+            busy.countDown();
+            release.await();
+            return true;
+        }, 1, 1, 1, 0, 1, 10);
+        store.submit(text("one"), false);
+        busy.await();
+        assertTrue(store.submit(text("two"), false));
+        assertFalse(store.submit(text("three"), false));
+        assertEquals(1, store.getDropped());
+        assertFalse(store.flush(10));
+
+        release.countDown();
+        assertTrue(store.shutdown(5000));
+        assertEquals(2, store.getWritten());
+        assertFalse(store.submit(text("four"), false));
+    }
+}